@@ -0,0 +1,27 @@
+package com.cheeray.sifters;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run benchmarks with the GC profiler, so allocation per operation is always reported.
+ * Accepts the standard JMH command line options, e.g.
+ * <code>java -jar benchmarks.jar SifterBenchmark -t 8 -p buckets=256</code>.
+ * @author Chengwei.Yan
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args)
+			throws CommandLineOptionException, RunnerException {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build())
+				.run();
+	}
+}
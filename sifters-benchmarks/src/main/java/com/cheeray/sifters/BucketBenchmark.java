@@ -0,0 +1,161 @@
+package com.cheeray.sifters;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Merge resolution of {@link Bucket#tryAdd(Gradable)}, with object and primitive keys,
+ * and flip cost of reduce and sink,
+ * each flip swaps out and collects a filled epoch.
+ * @author Chengwei.Yan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketBenchmark {
+
+	/**
+	 * Bucket being filled by adds.
+	 */
+	@State(Scope.Benchmark)
+	public static class Filling {
+
+		@Param({
+				"1000", "100000"
+		})
+		private int keys;
+
+		@Param({
+				"0", "0.5", "0.9"
+		})
+		private double dupRatio;
+
+		private Product[] products;
+		private Bucket<String, Product> bucket;
+
+		@Setup(Level.Trial)
+		public void products() {
+			products = Fixtures.products(keys, 1, dupRatio);
+		}
+
+		@Setup(Level.Iteration)
+		public void bucket() {
+			bucket = new Bucket<>(GradeKey.of(products[0].getGrades()), 1,
+					TimeUnit.HOURS);
+		}
+	}
+
+	/**
+	 * Bucket of primitive keyed targets being filled by adds.
+	 */
+	@State(Scope.Benchmark)
+	public static class LongFilling {
+
+		@Param({
+				"1000", "100000"
+		})
+		private int keys;
+
+		@Param({
+				"0", "0.5", "0.9"
+		})
+		private double dupRatio;
+
+		private Item[] items;
+		private Bucket<Long, Item> bucket;
+
+		@Setup(Level.Trial)
+		public void items() {
+			items = Fixtures.items(keys, dupRatio);
+		}
+
+		@Setup(Level.Iteration)
+		public void bucket() {
+			bucket = new Bucket<>(GradeKey.of(items[0].getGrades()), 1, TimeUnit.HOURS);
+		}
+	}
+
+	/**
+	 * Cursor of a producer thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int i;
+	}
+
+	/**
+	 * Bucket filled before measuring flips.
+	 */
+	@State(Scope.Benchmark)
+	public static class Filled {
+
+		@Param({
+				"1000", "100000"
+		})
+		private int keys;
+
+		private Product[] products;
+		private Bucket<String, Product> bucket;
+
+		@Setup(Level.Trial)
+		public void products() {
+			products = Fixtures.products(keys, 1, 0d);
+			bucket = new Bucket<>(GradeKey.of(products[0].getGrades()), 1,
+					TimeUnit.HOURS);
+		}
+
+		/**
+		 * A flip drains the bucket, refill before each flip.
+		 */
+		@Setup(Level.Invocation)
+		public void fill() {
+			for (Product p : products) {
+				bucket.tryAdd(p);
+			}
+		}
+	}
+
+	@Benchmark
+	public void add(Filling s, Cursor c) {
+		s.bucket.tryAdd(s.products[c.i++ % s.products.length]);
+	}
+
+	@Benchmark
+	public void addLong(LongFilling s, Cursor c) {
+		s.bucket.tryAdd(s.items[c.i++ % s.items.length]);
+	}
+
+	@Benchmark
+	public void reduce(Filled s, Blackhole bh) {
+		s.bucket.reduce(Summary::new, (a, b) -> {
+			a.addE(b.getE().get());
+			a.addF(b.getF().get());
+			return a;
+		}, (Summary r, Collection<Product> ps) -> {
+			bh.consume(r);
+		}, true);
+	}
+
+	@Benchmark
+	public void sink(Filled s, Blackhole bh) {
+		s.bucket.sink((k, d) -> {
+			bh.consume(d);
+		}, true);
+	}
+}
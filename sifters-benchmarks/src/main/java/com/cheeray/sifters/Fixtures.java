@@ -0,0 +1,45 @@
+package com.cheeray.sifters;
+
+import java.time.Instant;
+
+/**
+ * Product fixtures shared by benchmarks.
+ * @author Chengwei.Yan
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Create products spread over buckets.
+	 * @param size Number of products.
+	 * @param buckets Number of distinct grade combinations.
+	 * @param dupRatio Ratio of products which are newer versions of an existing key.
+	 */
+	static Product[] products(int size, int buckets, double dupRatio) {
+		final int distinct = Math.max(1, (int) (size * (1d - dupRatio)));
+		final Instant now = Instant.now();
+		final Product[] products = new Product[size];
+		for (int i = 0; i < size; i++) {
+			final int g = i % buckets;
+			products[i] = new Product("P" + (i % distinct), "A" + g, "B" + (g & 1), "C",
+					i % 5, i % 5 * 100, i % 5 * 1000, now.plusNanos(i));
+		}
+		return products;
+	}
+
+	/**
+	 * Create primitive keyed items of a bucket.
+	 * @param size Number of items.
+	 * @param dupRatio Ratio of items which are newer versions of an existing key.
+	 */
+	static Item[] items(int size, double dupRatio) {
+		final int distinct = Math.max(1, (int) (size * (1d - dupRatio)));
+		final Item[] items = new Item[size];
+		for (int i = 0; i < size; i++) {
+			items[i] = new Item(i % distinct, "A", i % 5 * 100, i);
+		}
+		return items;
+	}
+}
@@ -0,0 +1,80 @@
+package com.cheeray.sifters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of deriving a bucket key from the grades of a target.
+ * @author Chengwei.Yan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GradeKeyBenchmark {
+
+	@Param({
+			"1", "256"
+	})
+	private int buckets;
+
+	private Product[] products;
+	private int i;
+
+	@Setup
+	public void setup() {
+		products = Fixtures.products(1024, buckets, 0d);
+	}
+
+	private Product next() {
+		return products[i++ & (products.length - 1)];
+	}
+
+	@Benchmark
+	public GradeKey gradeKey() {
+		return GradeKey.of(next().getGrades());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Benchmark
+	public UUID toUUID() throws IOException {
+		return Grade.toUUID(next().getGrades());
+	}
+
+	/**
+	 * Serialized key derivation replaced by {@link GradeKey}, kept as a baseline.
+	 */
+	@Benchmark
+	public UUID serialized() throws IOException {
+		final Grade<?>[] grades = next().getGrades();
+		Arrays.sort(grades);
+		try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+			try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
+				for (Grade<?> g : grades) {
+					os.writeInt(g.getLevel());
+					os.writeObject(g.getT());
+				}
+				os.flush();
+			}
+			return UUID.nameUUIDFromBytes(bos.toByteArray());
+		}
+	}
+}
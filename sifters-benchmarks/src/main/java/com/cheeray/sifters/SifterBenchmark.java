@@ -0,0 +1,137 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Ingest throughput of {@link Sifter#trySift(Gradable)}, run with <code>-t</code> to vary
+ * the number of producer threads.
+ * @author Chengwei.Yan
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SifterBenchmark {
+
+	/** Size of a batch sifted by {@link #trySiftAll(Sifting, Cursor)}. */
+	private static final int BATCH = 1000;
+
+	/**
+	 * A sifter auto grading products.
+	 */
+	@State(Scope.Benchmark)
+	public static class Sifting {
+
+		@Param({
+				"1", "16", "256"
+		})
+		private int buckets;
+
+		@Param({
+				"1000", "100000"
+		})
+		private int keys;
+
+		@Param({
+				"0", "0.5"
+		})
+		private double dupRatio;
+
+		@Param({
+				"sink", "reduce", "accumulate"
+		})
+		private String collector;
+
+		private Product[] products;
+		private Sifter<String, Product> sifter;
+
+		@Setup(Level.Trial)
+		public void setup(Blackhole bh) {
+			products = Fixtures.products(keys, buckets, dupRatio);
+			final SiftBuilder b = Sifter.sift(buckets, 0.75f, 16).autoGrading(100,
+					TimeUnit.MILLISECONDS);
+			if ("sink".equals(collector)) {
+				sifter = b.collect(0, 100, TimeUnit.MILLISECONDS,
+						(String k, Product d) -> {
+							bh.consume(d);
+						});
+			} else if ("accumulate".equals(collector)) {
+				sifter = b.reduce(0, 100, TimeUnit.MILLISECONDS,
+						new Accumulator<Product, Summary>() {
+
+							@Override
+							public Summary create() {
+								return new Summary("", "", "", 0, 0, 0);
+							}
+
+							@Override
+							public void add(Summary r, Product d) {
+								r.addE(d.getE());
+								r.addF(d.getF());
+							}
+
+							@Override
+							public void retract(Summary r, Product d) {
+								r.addE(-d.getE());
+								r.addF(-d.getF());
+							}
+						}, (r, ps) -> {
+							bh.consume(r);
+						});
+			} else {
+				sifter = b.reduce(0, 100, TimeUnit.MILLISECONDS, Summary::new, (x, y) -> {
+					x.addE(y.getE().get());
+					x.addF(y.getF().get());
+					return x;
+				}, (r, ps) -> {
+					bh.consume(r);
+				});
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			sifter.shutdown();
+		}
+	}
+
+	/**
+	 * Cursor of a producer thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int i;
+	}
+
+	@Benchmark
+	public void trySift(Sifting s, Cursor c) throws IOException, UngradedException {
+		s.sifter.trySift(s.products[c.i++ % s.products.length]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public SiftResult<Product> trySiftAll(Sifting s, Cursor c) {
+		final int from = (c.i += BATCH) % s.products.length;
+		return s.sifter.trySiftAll(Arrays.asList(s.products).subList(from,
+				Math.min(from + BATCH, s.products.length)));
+	}
+}
@@ -0,0 +1,35 @@
+package com.cheeray.sifters;
+
+/**
+ * Incrementally maintain a result of a bucket, as targets arrive or are replaced by newer
+ * versions.
+ * <p>
+ * <code>add</code> and <code>retract</code> are called concurrently for different keys
+ * and in any order for the same key, so the result must be thread-safe and both
+ * operations commutative, e.g. sums kept in atomic counters.
+ * </p>
+ * @param D Type of the target graded object.
+ * @param R Type of result.
+ * @author Chengwei.Yan
+ */
+public interface Accumulator<D, R> {
+
+	/**
+	 * Create an empty result for a bucket.
+	 */
+	public R create();
+
+	/**
+	 * Add a target into a result.
+	 * @param r The result.
+	 * @param d The arrived target.
+	 */
+	public void add(R r, D d);
+
+	/**
+	 * Retract a target from a result, once it is replaced by a newer version.
+	 * @param r The result.
+	 * @param d The replaced target.
+	 */
+	public void retract(R r, D d);
+}
@@ -1,11 +1,15 @@
 package com.cheeray.sifters;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -15,6 +19,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Bucket to hold sifted <code>Gradable</code> targets into a <code>Clone</code> result.
+ * <p>
+ * Targets are held in an {@link Epoch}, a flip atomically swaps in a new epoch and waits
+ * for in-flight writers of the old one before collecting it, so writers never block and
+ * the bucket lives across flips.
+ * </p>
  * @param K Type of key to be graded.
  * @param D Type of raw <code>Gradable</code> target to be graded.
  * @param R Type of <code>Clone</code> sift result.
@@ -25,11 +34,35 @@ public class Bucket<K, D extends Gradable<K>> {
 	private final static Logger LOG = LoggerFactory.getLogger(Bucket.class);
 
 	/** Unique key of the bucket. */
-	private final UUID key;
+	private final GradeKey key;
+	/** Grading configuration of the bucket. */
+	private final GradingConfig cfg;
 	/** Timeout before flip to sink. */
 	private final AtomicLong flipDelay;
-	/** Bucket to hold sifted targets. */
-	private final ConcurrentHashMap<K, D> bucket;
+	/** Current delay between flips in nanoseconds, adapted by the flip policy if any. */
+	private volatile long delayNanos;
+	/** Moving average of arrivals per nanosecond, 0 before the first flip. */
+	private double arrivalRate;
+	/** Moving average of collect time in nanoseconds, 0 before the first flip. */
+	private double collectNanos;
+	/** Targets sifted as of the last flip collected. */
+	private long lastSifted;
+	/** Sub-buckets of the current epoch. */
+	private volatile int subBuckets;
+	/** Current epoch of sifted targets, null once retired. */
+	private final AtomicReference<Epoch<K, D>> epoch;
+	/** Is a flip scheduled or in progress? */
+	private final AtomicBoolean flipping;
+	/** Accumulator of running results, null if not incremental. */
+	private final Accumulator<? super D, Object> accumulator;
+	/** Spill configuration, null if never spill. */
+	private final Spill<D> spill;
+	/** Write-ahead journal, null if not durable. */
+	private final Journal<D> journal;
+	/** Targets sifted. */
+	private final LongAdder sifted;
+	/** Targets replaced by newer versions. */
+	private final LongAdder replaced;
 
 	/**
 	 * Init a bucket with given capacity and flip timeout, results will be converted and
@@ -40,53 +73,429 @@ public class Bucket<K, D extends Gradable<K>> {
 	 * @param delay Timeout to flip.
 	 * @param unit Unit of timeout value.
 	 */
-	public Bucket(UUID key, long delay, TimeUnit unit) {
+	public Bucket(GradeKey key, long delay, TimeUnit unit) {
+		this(key, new GradingConfig(delay, unit));
+	}
+
+	/**
+	 * Init a bucket with a grading configuration.
+	 * @param key The bucket key.
+	 * @param cfg Grading configuration with delay and limits.
+	 */
+	Bucket(GradeKey key, GradingConfig cfg) {
+		this(key, cfg, null);
+	}
+
+	/**
+	 * Init a bucket with a grading configuration, keeping a running result.
+	 * @param key The bucket key.
+	 * @param cfg Grading configuration with delay and limits.
+	 * @param accumulator Accumulator of the running result, null if not incremental.
+	 */
+	Bucket(GradeKey key, GradingConfig cfg, Accumulator<? super D, ?> accumulator) {
+		this(key, cfg, accumulator, null);
+	}
+
+	/**
+	 * Init a bucket with a grading configuration, targets may be spilled to disk.
+	 * @param key The bucket key.
+	 * @param cfg Grading configuration with delay and limits.
+	 * @param accumulator Accumulator of the running result, null if not incremental.
+	 * @param spill Spill configuration, null if never spill.
+	 */
+	Bucket(GradeKey key, GradingConfig cfg, Accumulator<? super D, ?> accumulator,
+			Spill<D> spill) {
+		this(key, cfg, accumulator, spill, null);
+	}
+
+	/**
+	 * Init a bucket with a grading configuration, targets may be journaled before added.
+	 * @param key The bucket key.
+	 * @param cfg Grading configuration with delay and limits.
+	 * @param accumulator Accumulator of the running result, null if not incremental.
+	 * @param spill Spill configuration, null if never spill.
+	 * @param journal Write-ahead journal, null if not durable.
+	 */
+	@SuppressWarnings("unchecked")
+	Bucket(GradeKey key, GradingConfig cfg, Accumulator<? super D, ?> accumulator,
+			Spill<D> spill, Journal<D> journal) {
 		this.key = key;
-		this.flipDelay = new AtomicLong(System.nanoTime() + unit.toNanos(delay));
-		this.bucket = new ConcurrentHashMap<>();
+		this.cfg = cfg;
+		final long delay = cfg.getUnit().toNanos(cfg.getDelay());
+		this.delayNanos = cfg.getPolicy() != null ? cfg.getPolicy().clamp(delay) : delay;
+		this.flipDelay = new AtomicLong(System.nanoTime() + delayNanos);
+		this.accumulator = (Accumulator<? super D, Object>) accumulator;
+		this.spill = spill;
+		this.journal = journal;
+		this.subBuckets = Math.max(1, cfg.getSubBuckets());
+		this.epoch = new AtomicReference<>(
+				new Epoch<>(cfg, this.accumulator, spill, subBuckets));
+		this.flipping = new AtomicBoolean(false);
+		this.sifted = new LongAdder();
+		this.replaced = new LongAdder();
 	}
 
 	/**
 	 * Obtains the bucket key.
 	 */
-	public UUID getKey() {
+	public GradeKey getKey() {
 		return key;
 	}
 
 	/**
-	 * Try add a target to bucket. Blocking call if free MEM is under limit.
+	 * Obtains the grading configuration.
+	 */
+	GradingConfig getConfig() {
+		return cfg;
+	}
+
+	/**
+	 * Obtains number of targets sifted.
+	 */
+	long getSifted() {
+		return sifted.sum();
+	}
+
+	/**
+	 * Obtains number of targets replaced by newer versions.
+	 */
+	long getReplaced() {
+		return replaced.sum();
+	}
+
+	/**
+	 * Count an added target.
+	 * @param d The target.
+	 * @param r Result of adding to an epoch.
+	 */
+	private void count(D d, D r) {
+		sifted.increment();
+		if (r != null && r != d) {
+			replaced.increment();
+		}
+	}
+
+	/**
+	 * Journal a target before added to an epoch.
+	 */
+	private void journal(D d, Epoch<K, D> e) {
+		if (journal != null) {
+			try {
+				journal.append(d, e);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Failed to journal " + d, ex);
+			}
+		}
+	}
+
+	/**
+	 * Try add a target to bucket.
 	 * @param d The target.
+	 * @return false if the bucket is retired.
+	 * @throws UncheckedIOException if the target cannot be journaled.
 	 */
-	public void tryAdd(D d) {
-		add(d);
+	public boolean tryAdd(D d) {
+		return add(d, null);
 	}
 
 	/**
-	 * Add a target.
+	 * Add a target replayed from a journal segment.
 	 * @param d The target.
+	 * @param s The segment holding the target.
+	 * @return false if the bucket is retired.
+	 */
+	boolean recover(D d, JournalSegment s) {
+		return add(d, s);
+	}
+
+	private boolean add(D d, JournalSegment recovered) {
+		for (;;) {
+			final Epoch<K, D> e = epoch.get();
+			if (e == null) {
+				return false;
+			}
+			e.enter();
+			try {
+				if (epoch.get() == e) {
+					if (recovered != null) {
+						e.journaled(recovered);
+					} else {
+						journal(d, e);
+					}
+					count(d, e.add(d));
+					return true;
+				}
+			} finally {
+				e.exit();
+			}
+		}
+	}
+
+	/**
+	 * Add a batch of targets with the same grades, a target failed to be journaled is not
+	 * added.
+	 * @param ds The targets.
+	 * @param failed Targets failed to be journaled.
+	 * @return false if the bucket is retired, none of targets is added.
 	 */
-	private void add(D d) {
-		this.bucket.merge(d.getKey(), d, (ex, ne) -> {
-			// Comparing exist and new value ...
-			if (ex == null) {
-				return ne;
+	boolean tryAddAll(Collection<? extends D> ds, Collection<? super D> failed) {
+		for (;;) {
+			final Epoch<K, D> e = epoch.get();
+			if (e == null) {
+				return false;
 			}
-			if (ne == null) {
+			e.enter();
+			try {
+				if (epoch.get() == e) {
+					for (D d : ds) {
+						try {
+							journal(d, e);
+						} catch (UncheckedIOException ex) {
+							LOG.error(ex.getMessage(), ex.getCause());
+							failed.add(d);
+							continue;
+						}
+						count(d, e.add(d));
+					}
+					return true;
+				}
+			} finally {
+				e.exit();
+			}
+		}
+	}
+
+	/**
+	 * Swap in a new epoch, writers of the old one may be still in flight.
+	 * @return the old epoch, null if retired.
+	 */
+	Epoch<K, D> swap() {
+		Epoch<K, D> old;
+		do {
+			old = epoch.get();
+			if (old == null) {
 				return null;
 			}
-			if (ex.getVersion().compareTo(ne.getVersion()) > 0) {
-				return ex;
-			} else {
-				return ne;
+		} while (!epoch.compareAndSet(old,
+				new Epoch<>(cfg, accumulator, spill, split(old))));
+		flipDelay.set(System.nanoTime() + delayNanos);
+		return old;
+	}
+
+	/**
+	 * Swap in a new epoch and drain writers of the old one.
+	 * @return the old epoch, null if retired.
+	 */
+	Epoch<K, D> flip() {
+		final Epoch<K, D> old = swap();
+		if (old != null) {
+			old.drain();
+		}
+		return old;
+	}
+
+	/**
+	 * Retire the bucket, no more targets can be added.
+	 * @return the last epoch, null if already retired.
+	 */
+	Epoch<K, D> retire() {
+		final Epoch<K, D> old = epoch.getAndSet(null);
+		if (old != null) {
+			old.drain();
+		}
+		return old;
+	}
+
+	/**
+	 * Spill targets of the current epoch to disk, a no-op if spill is not configured.
+	 * @return false if not spilled.
+	 */
+	boolean spill() {
+		final Epoch<K, D> e = epoch.get();
+		if (e == null) {
+			return false;
+		}
+		e.enter();
+		try {
+			return epoch.get() == e && e.spill();
+		} finally {
+			e.exit();
+		}
+	}
+
+	/**
+	 * Obtains number of targets of the current epoch held in heap.
+	 */
+	long size() {
+		final Epoch<K, D> e = epoch.get();
+		return e == null ? 0 : e.size();
+	}
+
+	/**
+	 * Obtains the target of a key in the current epoch.
+	 * @return the target, null if absent, spilled or being flipped.
+	 */
+	D peek(K k) {
+		final Epoch<K, D> e = epoch.get();
+		return e == null ? null : e.get(k);
+	}
+
+	/**
+	 * Obtains targets of the current epoch held in heap, weakly consistent.
+	 */
+	Collection<D> values() {
+		final Epoch<K, D> e = epoch.get();
+		return e == null ? Collections.emptyList() : e.values();
+	}
+
+	/**
+	 * Wait for writers of a swapped out epoch and resolve its spilled targets.
+	 */
+	private void seal(Epoch<K, D> e) {
+		e.seal();
+	}
+
+	/**
+	 * Release journal segments of a collected or retired epoch.
+	 */
+	void release(Epoch<K, D> e) {
+		try {
+			e.release();
+		} catch (IOException ex) {
+			LOG.error("Failed to release journal of " + key, ex);
+		}
+	}
+
+	/**
+	 * Pour targets of a failed flip back to the current epoch.
+	 */
+	private void pourBack(Epoch<K, D> e) {
+		e.all().forEach(d -> {
+			if (!tryAdd(d)) {
+				LOG.error("Bucket {} is retired, dropped {}.", key, d);
 			}
 		});
 	}
 
+	/**
+	 * Is the bucket over its max entries or bytes?
+	 */
+	public boolean isFull() {
+		final Epoch<K, D> e = epoch.get();
+		return e != null && e.isFull();
+	}
+
+	/**
+	 * Sub-buckets of the next epoch, split by contention of writers of the old one if not
+	 * configured. Doubled once over 1/8 of writers contended, up to the processors, and
+	 * halved once under 1/64.
+	 */
+	private int split(Epoch<K, D> old) {
+		if (cfg.getSubBuckets() != 0) {
+			return subBuckets;
+		}
+		final double c = old.getContention();
+		final int n = subBuckets;
+		if (c > 1.0 / 8 && n < Runtime.getRuntime().availableProcessors()) {
+			subBuckets = n * 2;
+		} else if (c < 1.0 / 64 && n > 1) {
+			subBuckets = n / 2;
+		}
+		return subBuckets;
+	}
+
+	/**
+	 * Obtains number of sub-buckets of the current epoch.
+	 */
+	int getSubBuckets() {
+		return subBuckets;
+	}
+
+	/**
+	 * Is the current epoch empty?
+	 */
+	public boolean isEmpty() {
+		final Epoch<K, D> e = epoch.get();
+		return e == null || e.isEmpty();
+	}
+
+	/**
+	 * Obtains the flip deadline in <code>System.nanoTime()</code>.
+	 */
+	long getDeadline() {
+		return flipDelay.get();
+	}
+
+	/**
+	 * Obtains the current delay between flips in nanoseconds.
+	 */
+	long getDelayNanos() {
+		return delayNanos;
+	}
+
+	/**
+	 * Obtains targets sifted since the last call, including versions replaced.
+	 */
+	private synchronized long arrivals() {
+		final long n = sifted.sum();
+		final long d = n - lastSifted;
+		lastSifted = n;
+		return d;
+	}
+
+	/**
+	 * Adapt the delay by a collected epoch.
+	 * @param count Targets arrived during the epoch.
+	 * @param span Nanoseconds the epoch was current.
+	 * @param took Nanoseconds to collect the epoch.
+	 */
+	synchronized void adapt(long count, long span, long took) {
+		final FlipPolicy policy = cfg.getPolicy();
+		if (policy == null) {
+			return;
+		}
+		final double rate = (double) count / Math.max(1, span);
+		if (collectNanos == 0) {
+			arrivalRate = rate;
+			collectNanos = took;
+		} else {
+			arrivalRate += FlipPolicy.ALPHA * (rate - arrivalRate);
+			collectNanos += FlipPolicy.ALPHA * (took - collectNanos);
+		}
+		delayNanos = policy.next(arrivalRate, collectNanos);
+	}
+
 	/**
 	 * Is time to flip?
 	 */
 	public boolean isFlippable() {
-		return System.nanoTime() >= flipDelay.get();
+		return !flipping.get() && (isFull() || System.nanoTime() >= flipDelay.get());
+	}
+
+	/**
+	 * Claim the flip of the bucket, only one flip is in progress at a time.
+	 * @return false if a flip is already claimed.
+	 */
+	boolean startFlip() {
+		return flipping.compareAndSet(false, true);
+	}
+
+	/**
+	 * Release the claimed flip.
+	 */
+	void endFlip() {
+		flipping.set(false);
+	}
+
+	/**
+	 * Postpone an empty bucket to the next flip deadline.
+	 */
+	void skip() {
+		final FlipPolicy policy = cfg.getPolicy();
+		if (policy != null) {
+			delayNanos = policy.idle(delayNanos);
+		}
+		flipDelay.set(System.nanoTime() + delayNanos);
 	}
 
 	/**
@@ -116,16 +525,32 @@ public class Bucket<K, D extends Gradable<K>> {
 			throw new UnsupportedOperationException(
 					"Not support trasforming result, please provide accumulator and combiner.");
 		}
-		if (forced || System.nanoTime() >= flipDelay.get()) {
-			// Try parallel ...
-			final Optional<R> rs = this.bucket.values().parallelStream().map(transformer)
-					.reduce(combiner);
-			if (rs.isPresent()) {
-				consumer.accept(rs.get(), this.bucket.values());
+		if (forced || isFlippable()) {
+			final Epoch<K, D> e = flip();
+			if (e != null) {
+				collect(e, new Fanout<K, D>().reduce(transformer, combiner, consumer))
+						.join();
 			}
 		}
 	}
 
+	/**
+	 * Hand the running result over to consumer, the result is maintained as targets
+	 * arrive so no work is left at flip time.
+	 * @param consumer The result consumer.
+	 */
+	@SuppressWarnings("unchecked")
+	<R> void accumulate(BiConsumer<R, Collection<D>> consumer) {
+		if (accumulator == null) {
+			throw new UnsupportedOperationException("Not an incremental bucket.");
+		}
+		final Epoch<K, D> e = flip();
+		if (e != null) {
+			collect(e, new Fanout<K, D>().accumulate((Accumulator<? super D, R>) accumulator,
+					consumer)).join();
+		}
+	}
+
 	/**
 	 * Sink all targets to a result and pass to consumer.
 	 * @see side-effects
@@ -142,18 +567,51 @@ public class Bucket<K, D extends Gradable<K>> {
 	 * @param forced Force dump all entries.
 	 */
 	void sink(BiConsumer<? super K, ? super D> action, boolean forced) {
-		if (forced || System.nanoTime() >= flipDelay.get()) {
-			this.bucket.forEach(Runtime.getRuntime().availableProcessors(), action);
+		if (forced || isFlippable()) {
+			final Epoch<K, D> e = flip();
+			if (e != null) {
+				collect(e, new Fanout<K, D>().sink(action)).join();
+			}
 		}
 	}
 
+	/**
+	 * Feed targets of a swapped out epoch to collectors, poured back on failure.
+	 * @return completion of all collectors.
+	 */
+	CompletableFuture<Void> collect(Epoch<K, D> e, Fanout<K, D> fanout) {
+		seal(e);
+		final long start = System.nanoTime();
+		final long span = start - e.getCreated();
+		final long arrived = cfg.getPolicy() != null ? arrivals() : 0;
+		final CompletableFuture<Void> done;
+		try {
+			done = fanout.collect(key, e);
+		} catch (RuntimeException ex) {
+			pourBack(e);
+			release(e);
+			throw ex;
+		}
+		return done.whenComplete((v, ex) -> {
+			if (ex != null) {
+				pourBack(e);
+			} else {
+				adapt(arrived, span, System.nanoTime() - start);
+			}
+			release(e);
+		});
+	}
+
 	/**
 	 * Merge with another bucket.
 	 */
 	Bucket<K, D> merge(Bucket<K, D> b) {
-		b.bucket.forEachValue(Runtime.getRuntime().availableProcessors(), d -> {
-			this.add(d);
-		});
+		final Epoch<K, D> e = b.epoch.get();
+		if (e != null) {
+			e.values().forEach(d -> {
+				this.tryAdd(d);
+			});
+		}
 		return this;
 	}
 }
@@ -0,0 +1,23 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+
+/**
+ * Encode and decode targets, used to write targets out of heap.
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+public interface Codec<D> {
+
+	/**
+	 * Encode a target.
+	 * @param d The target.
+	 */
+	public byte[] encode(D d) throws IOException;
+
+	/**
+	 * Decode a target.
+	 * @param bytes Bytes of an encoded target.
+	 */
+	public D decode(byte[] bytes) throws IOException;
+}
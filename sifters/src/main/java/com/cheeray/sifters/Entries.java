@@ -0,0 +1,71 @@
+package com.cheeray.sifters;
+
+import java.util.Collection;
+import java.util.function.BiConsumer;
+
+/**
+ * Map of sifted targets by key, held by an epoch.
+ * @param K Type of key to be graded.
+ * @param D Type of raw <code>Gradable</code> target to be graded.
+ * @author Chengwei.Yan
+ */
+interface Entries<K, D extends Gradable<K>> {
+
+	/**
+	 * Create entries fit for the type of a target, primitive keyed for
+	 * {@link LongGradable}.
+	 * @param d A target.
+	 */
+	@SuppressWarnings({
+			"unchecked", "rawtypes"
+	})
+	static <K, D extends Gradable<K>> Entries<K, D> of(D d) {
+		if (d instanceof LongGradable) {
+			return (Entries<K, D>) new LongEntries();
+		}
+		return new HashEntries<>();
+	}
+
+	/**
+	 * Add a target if its key is absent.
+	 * @return the exist target, null if added.
+	 */
+	D putIfAbsent(D d);
+
+	/**
+	 * Replace an exist target.
+	 * @return false if the exist target is gone.
+	 */
+	boolean replace(D ex, D d);
+
+	/**
+	 * Remove a target.
+	 * @return false if the target is gone.
+	 */
+	boolean remove(D d);
+
+	/**
+	 * Obtains the target of a key.
+	 * @return the target, null if absent.
+	 */
+	D get(K key);
+
+	/**
+	 * Compare versions of two targets with the same key.
+	 */
+	int compareVersion(D a, D b);
+
+	long size();
+
+	boolean isEmpty();
+
+	/**
+	 * Obtains targets, may be a snapshot.
+	 */
+	Collection<D> values();
+
+	/**
+	 * Pass each target to an action in parallel.
+	 */
+	void forEach(BiConsumer<? super K, ? super D> action);
+}
@@ -0,0 +1,491 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sifted targets of a bucket between two flips. A bucket swaps in a new epoch at flip
+ * time and drains in-flight writers of the old one before collecting it. Targets may be
+ * spilled to segment files while memory is short. At flip time they are streamed back
+ * from the segments to collectors, merged with targets in heap by the newest version of
+ * each key, so only keys and versions of spilled targets are held in heap. An epoch
+ * accumulating a {@link Sketch} keeps no targets but the summary.
+ * @param K Type of key to be graded.
+ * @param D Type of raw <code>Gradable</code> target to be graded.
+ * @author Chengwei.Yan
+ */
+final class Epoch<K, D extends Gradable<K>> {
+
+	private final static Logger LOG = LoggerFactory.getLogger(Epoch.class);
+
+	/** Grading configuration of the bucket. */
+	private final GradingConfig cfg;
+	/** Sifted targets, created by the first target to fit its key type. */
+	private final AtomicReference<Entries<K, D>> entries;
+	/** Estimated bytes of sifted targets. */
+	private final LongAdder bytes;
+	/** Writers in progress. */
+	private final LongAdder writers;
+	/** Accumulator of the running result, null if not incremental. */
+	private final Accumulator<? super D, Object> accumulator;
+	/** Running result, null if not incremental. */
+	private final Object result;
+	/** Targets added into a summary only, null if targets are kept. */
+	private final LongAdder summarized;
+	/** Is the epoch over its limits? */
+	private volatile boolean full;
+	/** Spill configuration, null if never spill. */
+	private final Spill<D> spill;
+	/** Segments of spilled targets, guarded by the spilling lock. */
+	private final List<SpillSegment> segments;
+	/** Number of spilled segments, read without the lock. */
+	private volatile int spilled;
+	/** Newest spilled target of each key, guarded by the spilling lock until sealed. */
+	private final Map<K, Spilled> spilledKeys;
+	/** Lock of spilling. */
+	private final ReentrantLock spilling;
+	/** Journal segments holding targets of the epoch, in order of appends. */
+	private final List<JournalSegment> journaled;
+	/** Last journal segment referred. */
+	private volatile JournalSegment lastJournaled;
+	/** Creation time in <code>System.nanoTime()</code>. */
+	private final long created;
+	/** Sub-maps of entries, 1 if not split. */
+	private final int stripes;
+	/** Writers entered, null if contention is not tracked. */
+	private final LongAdder entered;
+	/** Writers entered while another writer was in progress. */
+	private final LongAdder contended;
+
+	/**
+	 * Constructor
+	 */
+	Epoch(GradingConfig cfg, Accumulator<? super D, Object> accumulator) {
+		this(cfg, accumulator, null);
+	}
+
+	/**
+	 * Constructor
+	 */
+	Epoch(GradingConfig cfg, Accumulator<? super D, Object> accumulator,
+			Spill<D> spill) {
+		this(cfg, accumulator, spill, 1);
+	}
+
+	/**
+	 * Constructor
+	 * @param stripes Sub-maps of entries by writer thread, not split if incremental or
+	 * spilled.
+	 */
+	Epoch(GradingConfig cfg, Accumulator<? super D, Object> accumulator,
+			Spill<D> spill, int stripes) {
+		this.cfg = cfg;
+		this.entries = new AtomicReference<>();
+		this.bytes = new LongAdder();
+		this.writers = new LongAdder();
+		this.accumulator = accumulator;
+		this.result = accumulator != null ? accumulator.create() : null;
+		this.summarized = accumulator instanceof Sketch ? new LongAdder() : null;
+		this.full = false;
+		this.spill = spill;
+		this.segments = new ArrayList<>();
+		this.spilledKeys = new HashMap<>();
+		this.spilling = new ReentrantLock();
+		this.journaled = new ArrayList<>(1);
+		this.created = System.nanoTime();
+		this.stripes = accumulator == null && spill == null ? stripes : 1;
+		this.entered = cfg.getSubBuckets() == 0 && accumulator == null && spill == null
+				? new LongAdder() : null;
+		this.contended = entered != null ? new LongAdder() : null;
+	}
+
+	/**
+	 * Obtains creation time in <code>System.nanoTime()</code>.
+	 */
+	long getCreated() {
+		return created;
+	}
+
+	/**
+	 * Enter as a writer.
+	 */
+	void enter() {
+		writers.increment();
+		if (entered != null) {
+			entered.increment();
+			if (writers.sum() > 1) {
+				contended.increment();
+			}
+		}
+	}
+
+	/**
+	 * Obtains the ratio of writers entered while another writer was in progress, 0 if
+	 * contention is not tracked.
+	 */
+	double getContention() {
+		if (entered == null) {
+			return 0;
+		}
+		final long n = entered.sum();
+		return n == 0 ? 0 : (double) contended.sum() / n;
+	}
+
+	/**
+	 * Exit as a writer.
+	 */
+	void exit() {
+		writers.decrement();
+	}
+
+	/**
+	 * Wait for in-flight writers, no writer can enter once the epoch is swapped out.
+	 */
+	void drain() {
+		while (writers.sum() != 0) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Wait for in-flight writers, merge sub-maps and resolve spilled targets against
+	 * targets in heap by key and version, so each key is left either in heap or spilled.
+	 */
+	void seal() {
+		drain();
+		final Entries<K, D> es = entries.get();
+		if (es instanceof StripedEntries) {
+			entries.set(((StripedEntries<K, D>) es).merge());
+		}
+		final Entries<K, D> heap = entries.get();
+		if (heap == null) {
+			return;
+		}
+		spilling.lock();
+		try {
+			spilledKeys.entrySet().removeIf(s -> {
+				final D d = heap.get(s.getKey());
+				if (d == null) {
+					return false;
+				}
+				// Arrived after the spilled one, newer unless versioned older ...
+				if (d.getVersion().compareTo(s.getValue().version) >= 0) {
+					return true;
+				}
+				heap.remove(d);
+				weigh(-d.getEstimatedSize());
+				return false;
+			});
+		} finally {
+			spilling.unlock();
+		}
+	}
+
+	/**
+	 * Spill targets in heap to segment files, skipped if another spill is in progress.
+	 * @return false if not spilled.
+	 */
+	boolean spill() {
+		if (spill == null || !spilling.tryLock()) {
+			return false;
+		}
+		try {
+			SpillSegment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			final Entries<K, D> es = entries.get();
+			if (es == null) {
+				return true;
+			}
+			for (D d : es.values()) {
+				if (!es.remove(d)) {
+					continue;
+				}
+				try {
+					final byte[] bytes = spill.getCodec().encode(d);
+					int position = tail == null ? -1 : tail.append(bytes);
+					if (position < 0) {
+						tail = spill.segment(bytes.length);
+						segments.add(tail);
+						spilled = segments.size();
+						position = tail.append(bytes);
+					}
+					spilledKeys.merge(d.getKey(),
+							new Spilled(d.getVersion(), segments.size() - 1, position),
+							(a, b) -> a.version.compareTo(b.version) > 0 ? a : b);
+					weigh(-d.getEstimatedSize());
+				} catch (IOException e) {
+					LOG.error("Failed to spill, keep in heap.", e);
+					add(d);
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			spilling.unlock();
+		}
+	}
+
+	/**
+	 * Refer to a journal segment holding a target of the epoch.
+	 */
+	void journaled(JournalSegment s) {
+		if (s != lastJournaled) {
+			synchronized (journaled) {
+				if (!journaled.contains(s)) {
+					s.retain();
+					journaled.add(s);
+				}
+				lastJournaled = s;
+			}
+		}
+	}
+
+	/**
+	 * Delete spill segments and release journal segments once the epoch is collected.
+	 */
+	void release() throws IOException {
+		spilling.lock();
+		try {
+			for (SpillSegment seg : segments) {
+				seg.delete();
+			}
+		} finally {
+			segments.clear();
+			spilled = 0;
+			spilling.unlock();
+			synchronized (journaled) {
+				for (JournalSegment s : journaled) {
+					s.release();
+				}
+				journaled.clear();
+				lastJournaled = null;
+			}
+		}
+	}
+
+	/**
+	 * Add a target, an exist target is replaced if it is not newer.
+	 * @param d The target.
+	 * @return the replaced target, or the given target if an exist one is newer, or null
+	 * if added as a new entry.
+	 */
+	D add(D d) {
+		if (summarized != null) {
+			accumulator.add(result, d);
+			summarized.increment();
+			return null;
+		}
+		final Entries<K, D> es = entries(d);
+		D ex = es.putIfAbsent(d);
+		while (ex != null) {
+			// Comparing exist and new value ...
+			if (es.compareVersion(ex, d) > 0) {
+				return d;
+			}
+			if (es.replace(ex, d)) {
+				if (accumulator != null) {
+					accumulator.retract(result, ex);
+					accumulator.add(result, d);
+				}
+				weigh(d.getEstimatedSize() - ex.getEstimatedSize());
+				return ex;
+			}
+			ex = es.putIfAbsent(d);
+		}
+		if (accumulator != null) {
+			accumulator.add(result, d);
+		}
+		weigh(d.getEstimatedSize());
+		if (cfg.getMaxEntries() != Long.MAX_VALUE
+				&& es.size() >= cfg.getMaxEntries()) {
+			this.full = true;
+		}
+		return null;
+	}
+
+	/**
+	 * Obtains entries, created on the first target.
+	 */
+	private Entries<K, D> entries(D d) {
+		final Entries<K, D> es = entries.get();
+		if (es != null) {
+			return es;
+		}
+		entries.compareAndSet(null,
+				stripes > 1 ? new StripedEntries<>(stripes, d) : Entries.of(d));
+		return entries.get();
+	}
+
+	/**
+	 * Track estimated bytes.
+	 */
+	private void weigh(long delta) {
+		bytes.add(delta);
+		if (cfg.getMaxBytes() != Long.MAX_VALUE && bytes.sum() >= cfg.getMaxBytes()) {
+			this.full = true;
+		}
+	}
+
+	/**
+	 * Obtains the target of a key held in heap.
+	 * @return the target, null if absent, spilled or summarized.
+	 */
+	D get(K key) {
+		final Entries<K, D> es = entries.get();
+		return es == null ? null : es.get(key);
+	}
+
+	/**
+	 * Obtains estimated bytes of targets held in heap.
+	 */
+	long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Is the epoch over its max entries or bytes?
+	 */
+	boolean isFull() {
+		return full;
+	}
+
+	boolean isEmpty() {
+		if (summarized != null) {
+			return summarized.sum() == 0;
+		}
+		final Entries<K, D> es = entries.get();
+		return (es == null || es.isEmpty()) && spilled == 0;
+	}
+
+	/**
+	 * Obtains number of targets held in heap, or added into a summary.
+	 */
+	long size() {
+		if (summarized != null) {
+			return summarized.sum();
+		}
+		final Entries<K, D> es = entries.get();
+		return es == null ? 0 : es.size();
+	}
+
+	/**
+	 * Obtains the running result, null if not incremental.
+	 */
+	Object getResult() {
+		return result;
+	}
+
+	/**
+	 * Obtains sifted targets held in heap.
+	 */
+	Collection<D> values() {
+		final Entries<K, D> es = entries.get();
+		return es == null ? Collections.emptyList() : es.values();
+	}
+
+	/**
+	 * Obtains sifted targets of a sealed epoch, in heap and spilled. Spilled targets are
+	 * read back from their segments on each traversal until the epoch is released.
+	 */
+	Collection<D> all() {
+		final Collection<D> heap = values();
+		if (spilledKeys.isEmpty()) {
+			return heap;
+		}
+		return new AbstractCollection<D>() {
+
+			@Override
+			public Iterator<D> iterator() {
+				return stream().iterator();
+			}
+
+			@Override
+			public int size() {
+				return (int) Math.min(Integer.MAX_VALUE, heap.size() + spilledKeys.size());
+			}
+
+			@Override
+			public Stream<D> stream() {
+				return Stream.concat(heap.stream(), spilled(false));
+			}
+
+			@Override
+			public Stream<D> parallelStream() {
+				return Stream.concat(heap.parallelStream(), spilled(true));
+			}
+		};
+	}
+
+	/**
+	 * Pass each sifted target of a sealed epoch to an action in parallel, spilled targets
+	 * are read back from their segments.
+	 */
+	void forEach(BiConsumer<? super K, ? super D> action) {
+		final Entries<K, D> es = entries.get();
+		if (es != null) {
+			es.forEach(action);
+		}
+		if (!spilledKeys.isEmpty()) {
+			spilled(true).forEach(d -> action.accept(d.getKey(), d));
+		}
+	}
+
+	/**
+	 * Pass each key of a sealed epoch, in heap and spilled, to an action.
+	 */
+	void forEachKey(Consumer<? super K> action) {
+		for (D d : values()) {
+			action.accept(d.getKey());
+		}
+		spilledKeys.keySet().forEach(action);
+	}
+
+	/**
+	 * Stream spilled targets of a sealed epoch segment by segment, a record is decoded at a
+	 * time and passed only if it is the newest version of its key.
+	 * @param parallel Read segments in parallel?
+	 */
+	private Stream<D> spilled(boolean parallel) {
+		final List<SpillSegment> segs = new ArrayList<>(segments);
+		final IntStream is = IntStream.range(0, segs.size());
+		return (parallel ? is.parallel() : is).boxed().flatMap(i -> segs.get(i).read(
+				(position, bytes) -> {
+					final D d = spill.getCodec().decode(bytes);
+					final Spilled s = spilledKeys.get(d.getKey());
+					return s != null && s.segment == i && s.position == position ? d : null;
+				}));
+	}
+
+	/**
+	 * Location and version of the newest spilled target of a key.
+	 */
+	private static final class Spilled {
+
+		private final Instant version;
+		private final int segment;
+		private final int position;
+
+		private Spilled(Instant version, int segment, int position) {
+			this.version = version;
+			this.segment = segment;
+			this.position = position;
+		}
+	}
+}
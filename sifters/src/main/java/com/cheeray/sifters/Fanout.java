@@ -0,0 +1,451 @@
+package com.cheeray.sifters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Collectors of a sifter, any mix of sinks and reducers fed by a single flip of each
+ * bucket in one traversal of its targets.
+ * <p>
+ * At most one incremental accumulator can be added, its running result is maintained
+ * by buckets as targets arrive.
+ * </p>
+ * <p>
+ * Asynchronous collectors return a <code>CompletionStage</code>, a flip is in flight
+ * until all of its stages complete, without holding a pool thread.
+ * </p>
+ * @param K Type of key of the target graded object.
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+public final class Fanout<K, D extends Gradable<K>> {
+
+	/** Completion of a synchronous collector. */
+	private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+	/** Sinks of each target. */
+	private final List<BiConsumer<? super K, ? super D>> sinks = new ArrayList<>();
+	/** Asynchronous sinks of all targets of a flip. */
+	private final List<Function<? super Collection<D>, ? extends CompletionStage<?>>> batches = new ArrayList<>();
+	/** Reducers of targets. */
+	private final List<Reducer<D, Object>> reducers = new ArrayList<>();
+	/** Accumulator of running results, null if not incremental. */
+	private Accumulator<? super D, ?> accumulator;
+	/** Consumer of running results. */
+	private BiFunction<Object, Collection<D>, ? extends CompletionStage<?>> accumulated;
+	/** Consumer of summaries, null if targets are kept. */
+	private BiConsumer<GradeKey, Object> summarized;
+	/** Publishers completed once the sifter is shutdown. */
+	private final List<FlipPublisher<?>> publishers = new ArrayList<>();
+	/** Roll-ups of flips, rolled every collector round. */
+	private final List<Rollup<?>> rollups = new ArrayList<>();
+	/** Sliding windows, advanced every collector round. */
+	private final List<LongConsumer> windows = new ArrayList<>();
+	/** Metrics of the sifter collected, null if not measured. */
+	private SifterMetrics metrics;
+
+	/**
+	 * Sink each target.
+	 * @param action Action on a target.
+	 */
+	public Fanout<K, D> sink(BiConsumer<? super K, ? super D> action) {
+		if (action == null)
+			throw new IllegalArgumentException("Missing action.");
+		sinks.add(action);
+		return this;
+	}
+
+	/**
+	 * Sink all targets of a flip asynchronously.
+	 * @param action Action on targets of a flip.
+	 */
+	public Fanout<K, D> sinkAsync(
+			Function<? super Collection<D>, ? extends CompletionStage<?>> action) {
+		if (action == null)
+			throw new IllegalArgumentException("Missing action.");
+		batches.add(action);
+		return this;
+	}
+
+	/**
+	 * Publish all targets of each flip, a flip is in flight until its targets are
+	 * requested by the subscriber.
+	 * @param publisher Publisher of targets of flips.
+	 */
+	public Fanout<K, D> publish(FlipPublisher<? super Collection<D>> publisher) {
+		if (publisher == null)
+			throw new IllegalArgumentException("Missing publisher.");
+		publishers.add(publisher);
+		return sinkAsync(publisher::offer);
+	}
+
+	/**
+	 * Transform targets to results and reduce, each reduced result of a flip is published.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results.
+	 * @param publisher Publisher of reduced results.
+	 */
+	public <R> Fanout<K, D> publish(Function<D, R> transformer, BinaryOperator<R> combiner,
+			FlipPublisher<? super R> publisher) {
+		if (publisher == null)
+			throw new IllegalArgumentException("Missing publisher.");
+		publishers.add(publisher);
+		return reduceAsync(transformer, combiner, (r, ds) -> publisher.offer(r));
+	}
+
+	/**
+	 * Transform targets to results and reduce.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results.
+	 * @param consumer Consume a result.
+	 */
+	public <R> Fanout<K, D> reduce(Function<D, R> transformer, BinaryOperator<R> combiner,
+			BiConsumer<R, Collection<D>> consumer) {
+		if (consumer == null)
+			throw new IllegalArgumentException("Missing consumer.");
+		return reduceAsync(transformer, combiner, (r, ds) -> {
+			consumer.accept(r, ds);
+			return DONE;
+		});
+	}
+
+	/**
+	 * Transform targets to results and reduce over a sliding window. Each flip is reduced
+	 * into a pane of its bucket, and the panes of the window are combined into a result on
+	 * every flip. A window of a bucket not flipped in a slide is advanced every collector
+	 * round and consumed without targets, with a null result once all panes slid out.
+	 * @param window The sliding window.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results, must not mutate either as panes are kept.
+	 * @param consumer Consume a window result with targets of the latest flip.
+	 */
+	public <R> Fanout<K, D> window(Window window, Function<D, R> transformer,
+			BinaryOperator<R> combiner, BiConsumer<R, Collection<D>> consumer) {
+		if (consumer == null)
+			throw new IllegalArgumentException("Missing consumer.");
+		return window(window, transformer, combiner, consumer,
+				(key, r) -> consumer.accept(r, Collections.emptyList()));
+	}
+
+	/**
+	 * Transform targets to results and reduce over a sliding window, windows of buckets
+	 * not flipped in a slide are consumed by grades.
+	 * @param window The sliding window.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results, must not mutate either as panes are kept.
+	 * @param consumer Consume a window result with targets of the latest flip.
+	 * @param idle Consume an advanced window result of grades not flipped in a slide, null
+	 * once all panes slid out.
+	 * @see #window(Window, Function, BinaryOperator, BiConsumer)
+	 */
+	public <R> Fanout<K, D> window(Window window, Function<D, R> transformer,
+			BinaryOperator<R> combiner, BiConsumer<R, Collection<D>> consumer,
+			BiConsumer<GradeKey, R> idle) {
+		if (window == null || consumer == null || idle == null)
+			throw new IllegalArgumentException("Missing window or consumer.");
+		final Panes<R> panes = new Panes<>(window, combiner);
+		windows.add(millis -> panes.advance(window.pane(millis), idle));
+		return reduce(transformer, combiner, (key, r, ds) -> {
+			consumer.accept(panes.add(key, window.pane(System.currentTimeMillis()), r), ds);
+			return DONE;
+		});
+	}
+
+	/**
+	 * Transform targets to results and reduce, then roll up over prefixes of grade levels.
+	 * Every collector round, results of buckets flipped since the previous round are
+	 * consumed with results of each coarser prefix of their grades, e.g. A+B+C, A+B and A,
+	 * each combined from its children in one pass.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results, must not mutate either.
+	 * @param consumer Consume a result of grades, called from the finest level to the
+	 * coarsest.
+	 */
+	public <R> Fanout<K, D> rollup(Function<D, R> transformer, BinaryOperator<R> combiner,
+			BiConsumer<GradeKey, R> consumer) {
+		if (consumer == null)
+			throw new IllegalArgumentException("Missing consumer.");
+		final Rollup<R> rollup = new Rollup<>(combiner, consumer);
+		rollups.add(rollup);
+		return reduce(transformer, combiner, (key, r, ds) -> {
+			rollup.add(key, r);
+			return DONE;
+		});
+	}
+
+	/**
+	 * Transform targets to results and reduce, the result is consumed asynchronously.
+	 * @param transformer Transform a target to a result.
+	 * @param combiner Combine two results.
+	 * @param consumer Consume a result.
+	 */
+	public <R> Fanout<K, D> reduceAsync(Function<D, R> transformer,
+			BinaryOperator<R> combiner,
+			BiFunction<R, Collection<D>, ? extends CompletionStage<?>> consumer) {
+		if (consumer == null)
+			throw new IllegalArgumentException("Missing consumer.");
+		return reduce(transformer, combiner, (key, r, ds) -> consumer.apply(r, ds));
+	}
+
+	/**
+	 * Transform targets to results and reduce, the result is consumed with the grade key
+	 * of its bucket.
+	 */
+	@SuppressWarnings("unchecked")
+	private <R> Fanout<K, D> reduce(Function<D, R> transformer, BinaryOperator<R> combiner,
+			Reduced<D, R> consumer) {
+		if (transformer == null || combiner == null || consumer == null)
+			throw new IllegalArgumentException(
+					"Missing transformer, combiner or consumer.");
+		reducers.add((Reducer<D, Object>) (Reducer<D, ?>) new Reducer<>(transformer,
+				combiner, consumer));
+		return this;
+	}
+
+	/**
+	 * Hand over running results maintained incrementally as targets arrive.
+	 * @param accumulator Accumulate targets into a result.
+	 * @param consumer Consume a result.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> Fanout<K, D> accumulate(Accumulator<? super D, R> accumulator,
+			BiConsumer<R, Collection<D>> consumer) {
+		if (accumulator == null || consumer == null)
+			throw new IllegalArgumentException("Missing accumulator or consumer.");
+		if (this.accumulator != null)
+			throw new IllegalStateException("Only one accumulator is supported.");
+		this.accumulator = accumulator;
+		this.accumulated = (r, ds) -> {
+			((BiConsumer<Object, Collection<D>>) consumer).accept(r, ds);
+			return DONE;
+		};
+		return this;
+	}
+
+	/**
+	 * Summarize targets by a sketch of fixed memory, buckets keep no targets so no other
+	 * collectors are allowed.
+	 * @param sketch Sketch of targets, see {@link Sketches}.
+	 * @param consumer Consume the summary of a bucket on each flip.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> Fanout<K, D> summarize(Sketch<? super D, R> sketch,
+			BiConsumer<GradeKey, R> consumer) {
+		if (sketch == null || consumer == null)
+			throw new IllegalArgumentException("Missing sketch or consumer.");
+		if (this.accumulator != null)
+			throw new IllegalStateException("Only one accumulator is supported.");
+		this.accumulator = sketch;
+		this.summarized = (BiConsumer<GradeKey, Object>) consumer;
+		return this;
+	}
+
+	/**
+	 * Check collectors are supported together.
+	 */
+	void validate() {
+		if (accumulator instanceof Sketch
+				&& (!sinks.isEmpty() || !batches.isEmpty() || !reducers.isEmpty()))
+			throw new IllegalStateException(
+					"A sketch keeps no targets for sinks or reducers.");
+	}
+
+	/**
+	 * Obtains the accumulator, null if not incremental.
+	 */
+	Accumulator<? super D, ?> getAccumulator() {
+		return accumulator;
+	}
+
+	/**
+	 * Complete roll-ups and publishers once all flips are delivered.
+	 */
+	void complete() {
+		roll();
+		publishers.forEach(FlipPublisher::complete);
+	}
+
+	/**
+	 * Drop results waiting for demand of publishers, their subscribers fail.
+	 * @param cause Cause signalled to subscribers.
+	 */
+	void abandon(Throwable cause) {
+		publishers.forEach(p -> p.abandon(cause));
+	}
+
+	/**
+	 * Are flips published?
+	 */
+	boolean isPublishing() {
+		return !publishers.isEmpty();
+	}
+
+	boolean isRolling() {
+		return !rollups.isEmpty();
+	}
+
+	/**
+	 * Roll up flips since the previous roll.
+	 */
+	void roll() {
+		rollups.forEach(Rollup::roll);
+	}
+
+	/**
+	 * Record latencies of sinks and reducers of flips.
+	 */
+	void measure(SifterMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	boolean isWindowing() {
+		return !windows.isEmpty();
+	}
+
+	/**
+	 * Advance sliding windows of buckets not flipped in the current pane.
+	 */
+	void advance() {
+		final long now = System.currentTimeMillis();
+		windows.forEach(w -> w.accept(now));
+	}
+
+	boolean isEmpty() {
+		return sinks.isEmpty() && batches.isEmpty() && reducers.isEmpty()
+				&& accumulator == null;
+	}
+
+	/**
+	 * Feed targets of a sealed epoch to all collectors.
+	 * @param key Grade key of the bucket.
+	 * @param e The epoch.
+	 * @return completion of all collectors.
+	 */
+	CompletableFuture<Void> collect(GradeKey key, Epoch<K, D> e) {
+		if (summarized != null) {
+			if (!e.isEmpty()) {
+				summarized.accept(key, e.getResult());
+			}
+			return DONE;
+		}
+		final long start = System.nanoTime();
+		final List<CompletableFuture<?>> sunk = new ArrayList<>();
+		final List<CompletableFuture<?>> reduced = new ArrayList<>();
+		// Snapshot targets once per flip, unless only sunk ...
+		final Collection<D> ds = accumulated == null && reducers.isEmpty()
+				&& batches.isEmpty() ? null : e.all();
+		if (accumulated != null) {
+			if (e.getResult() == null) {
+				throw new UnsupportedOperationException("Not an incremental bucket.");
+			}
+			if (!e.isEmpty()) {
+				reduced.add(accumulated.apply(e.getResult(), ds).toCompletableFuture());
+			}
+		}
+		if (reducers.isEmpty()) {
+			if (!sinks.isEmpty()) {
+				e.forEach(this::sink);
+			}
+		} else if (reducers.size() == 1) {
+			final Reducer<D, Object> r = reducers.get(0);
+			final Optional<Object> rs = ds.parallelStream().map(d -> {
+				sink(d.getKey(), d);
+				return r.transformer.apply(d);
+			}).reduce(r.combiner);
+			if (rs.isPresent()) {
+				reduced.add(r.consumer.apply(key, rs.get(), ds).toCompletableFuture());
+			}
+		} else {
+			final int n = reducers.size();
+			final Optional<Object[]> rs = ds.parallelStream().map(d -> {
+				sink(d.getKey(), d);
+				final Object[] r = new Object[n];
+				for (int i = 0; i < n; i++) {
+					r[i] = reducers.get(i).transformer.apply(d);
+				}
+				return r;
+			}).reduce((a, b) -> {
+				for (int i = 0; i < n; i++) {
+					a[i] = reducers.get(i).combiner.apply(a[i], b[i]);
+				}
+				return a;
+			});
+			if (rs.isPresent()) {
+				for (int i = 0; i < n; i++) {
+					reduced.add(reducers.get(i).consumer.apply(key, rs.get()[i], ds)
+							.toCompletableFuture());
+				}
+			}
+		}
+		if (!e.isEmpty()) {
+			for (Function<? super Collection<D>, ? extends CompletionStage<?>> b : batches) {
+				sunk.add(b.apply(ds).toCompletableFuture());
+			}
+		}
+		final CompletableFuture<Void> s = measure(sunk, start,
+				!sinks.isEmpty() && !e.isEmpty(), SifterMetrics::sunk);
+		final CompletableFuture<Void> r = measure(reduced, start, false,
+				SifterMetrics::reduced);
+		return s == DONE ? r : r == DONE ? s : CompletableFuture.allOf(s, r);
+	}
+
+	/**
+	 * Completion of stages of a flip, its latency since the flip started is recorded
+	 * once completed.
+	 * @param stages Stages of the flip.
+	 * @param start Start of the flip in nanoseconds.
+	 * @param ran Are collectors without a stage run by the flip?
+	 * @param record Record the latency.
+	 */
+	private CompletableFuture<Void> measure(List<CompletableFuture<?>> stages, long start,
+			boolean ran, ObjLongConsumer<SifterMetrics> record) {
+		final CompletableFuture<Void> done = stages.isEmpty() ? DONE
+				: CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()]));
+		if (metrics != null && (ran || !stages.isEmpty())) {
+			done.thenRun(() -> record.accept(metrics, System.nanoTime() - start));
+		}
+		return done;
+	}
+
+	private void sink(K k, D d) {
+		for (BiConsumer<? super K, ? super D> s : sinks) {
+			s.accept(k, d);
+		}
+	}
+
+	/**
+	 * Consumer of a reduced result of a bucket.
+	 */
+	private interface Reduced<D, R> {
+
+		CompletionStage<?> apply(GradeKey key, R r, Collection<D> ds);
+	}
+
+	/**
+	 * Transformer, combiner and consumer of a reduced result.
+	 */
+	private static final class Reducer<D, R> {
+
+		private final Function<D, R> transformer;
+		private final BinaryOperator<R> combiner;
+		private final Reduced<D, R> consumer;
+
+		private Reducer(Function<D, R> transformer, BinaryOperator<R> combiner,
+				Reduced<D, R> consumer) {
+			this.transformer = transformer;
+			this.combiner = combiner;
+			this.consumer = consumer;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.cheeray.sifters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit of flips and their estimated bytes in flight. Flips are never refused, new flips
+ * are deferred and producers wait while the limit is exhausted.
+ * @author Chengwei.Yan
+ */
+final class FlipLimiter {
+
+	/** Max flips in flight. */
+	private final int maxFlips;
+	/** Max estimated bytes of flips in flight. */
+	private final long maxBytes;
+	/** Flips in flight. */
+	private final AtomicInteger flips = new AtomicInteger();
+	/** Estimated bytes of flips in flight. */
+	private final AtomicLong bytes = new AtomicLong();
+	/** Monitor of waiting producers. */
+	private final Object lock = new Object();
+
+	/**
+	 * Constructor
+	 */
+	FlipLimiter(int maxFlips, long maxBytes) {
+		if (maxFlips <= 0 || maxBytes <= 0)
+			throw new IllegalArgumentException("Limits must be positive.");
+		this.maxFlips = maxFlips;
+		this.maxBytes = maxBytes;
+	}
+
+	boolean isSaturated() {
+		return flips.get() >= maxFlips || bytes.get() >= maxBytes;
+	}
+
+	/**
+	 * A flip is submitted.
+	 */
+	void acquire() {
+		flips.incrementAndGet();
+	}
+
+	/**
+	 * Bytes of a flip are known.
+	 */
+	void weigh(long b) {
+		bytes.addAndGet(b);
+	}
+
+	/**
+	 * A flip is completed.
+	 */
+	void release(long b) {
+		flips.decrementAndGet();
+		bytes.addAndGet(-b);
+		if (!isSaturated()) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Wait until the limit is available, a pool worker is compensated while waiting.
+	 * @param timeout Max time to wait.
+	 * @param unit Time unit of timeout.
+	 * @return false if still exhausted after timeout or interrupted.
+	 */
+	boolean await(long timeout, TimeUnit unit) {
+		if (!isSaturated()) {
+			return true;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+				@Override
+				public boolean block() throws InterruptedException {
+					synchronized (lock) {
+						final long left = deadline - System.nanoTime();
+						if (isSaturated() && left > 0) {
+							TimeUnit.NANOSECONDS.timedWait(lock, left);
+						}
+					}
+					return isReleasable();
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return !isSaturated() || System.nanoTime() - deadline >= 0;
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return !isSaturated();
+	}
+
+	/**
+	 * Wait until the limit is available.
+	 */
+	void await() {
+		while (!await(1, TimeUnit.SECONDS) && !Thread.currentThread().isInterrupted()) {
+		}
+	}
+}
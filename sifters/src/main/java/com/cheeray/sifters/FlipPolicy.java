@@ -0,0 +1,88 @@
+package com.cheeray.sifters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive flip delay of each bucket within bounds. Each flip updates moving averages of
+ * the arrival rate and the collect time of the bucket, the next delay aims for a target
+ * batch size, capped by a latency objective of arrival to collected if any. An empty
+ * bucket doubles its delay.
+ * @author Chengwei.Yan
+ */
+public final class FlipPolicy {
+
+	/** Weight of the latest flip in moving averages. */
+	static final double ALPHA = 0.3;
+
+	/**
+	 * Adapt delays to flip about a target batch size.
+	 * @param minDelay Min delay between flips.
+	 * @param maxDelay Max delay between flips.
+	 * @param unit Time unit of delays.
+	 * @param targetBatch Target number of targets of a flip.
+	 */
+	public static FlipPolicy adaptive(long minDelay, long maxDelay, TimeUnit unit,
+			long targetBatch) {
+		if (minDelay <= 0 || maxDelay < minDelay)
+			throw new IllegalArgumentException("Delays must be positive and ordered.");
+		if (targetBatch <= 0)
+			throw new IllegalArgumentException("Target batch must be positive.");
+		return new FlipPolicy(unit.toNanos(minDelay), unit.toNanos(maxDelay), targetBatch,
+				0);
+	}
+
+	/** Min delay in nanoseconds. */
+	private final long minNanos;
+	/** Max delay in nanoseconds. */
+	private final long maxNanos;
+	/** Target number of targets of a flip. */
+	private final long targetBatch;
+	/** Latency objective in nanoseconds, 0 if none. */
+	private final long sloNanos;
+
+	private FlipPolicy(long minNanos, long maxNanos, long targetBatch, long sloNanos) {
+		this.minNanos = minNanos;
+		this.maxNanos = maxNanos;
+		this.targetBatch = targetBatch;
+		this.sloNanos = sloNanos;
+	}
+
+	/**
+	 * A policy also keeping the time from arrival to collected under an objective, the
+	 * delay is shortened by the collect time.
+	 * @param slo Latency objective.
+	 * @param unit Time unit of the objective.
+	 */
+	public FlipPolicy latency(long slo, TimeUnit unit) {
+		if (slo <= 0)
+			throw new IllegalArgumentException("Latency objective must be positive.");
+		return new FlipPolicy(minNanos, maxNanos, targetBatch, unit.toNanos(slo));
+	}
+
+	/**
+	 * Bound a delay.
+	 */
+	long clamp(long nanos) {
+		return Math.max(minNanos, Math.min(maxNanos, nanos));
+	}
+
+	/**
+	 * Next delay of a bucket.
+	 * @param rate Average arrivals per nanosecond.
+	 * @param collectNanos Average collect time in nanoseconds.
+	 */
+	long next(double rate, double collectNanos) {
+		double d = rate > 0 ? targetBatch / rate : maxNanos;
+		if (sloNanos > 0) {
+			d = Math.min(d, sloNanos - collectNanos);
+		}
+		return clamp((long) Math.min(d, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Delay of an empty bucket.
+	 */
+	long idle(long nanos) {
+		return clamp(nanos > maxNanos / 2 ? maxNanos : nanos * 2);
+	}
+}
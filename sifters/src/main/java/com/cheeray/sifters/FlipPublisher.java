@@ -0,0 +1,221 @@
+package com.cheeray.sifters;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publisher of flip results to a single subscriber with demand signalling, added to a
+ * {@link Fanout} by <code>publish</code>. A flip is in flight until its result is
+ * delivered by <code>onNext</code>, so a subscriber not requesting holds flips in flight,
+ * and once {@link SiftBuilder#inFlight(int, long)} is exhausted further flips are
+ * deferred and producers wait. Results waiting for demand are bounded by the limit.
+ * <p>
+ * The subscriber and subscription contracts follow <code>java.util.concurrent.Flow</code>
+ * of Java 9, an adapter is a one-line delegation.
+ * </p>
+ * <p>
+ * Shutdown of the sifter flushes every bucket through the publisher, so it waits for the
+ * subscriber to request the flushed results, then the subscriber is completed. Results
+ * not requested within the shutdown timeout are dropped and the subscriber fails, see
+ * {@link Sifter#shutdown()}. Results of a cancelled subscription are dropped.
+ * </p>
+ * @param T Type of published results.
+ * @author Chengwei.Yan
+ */
+public final class FlipPublisher<T> {
+
+	/**
+	 * Receiver of flip results.
+	 * @param T Type of results.
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Invoked once subscribed, before any other method.
+		 */
+		public void onSubscribe(Subscription subscription);
+
+		/**
+		 * Invoked with a result within requested demand.
+		 */
+		public void onNext(T item);
+
+		/**
+		 * Invoked once the subscription fails, no more results.
+		 */
+		public void onError(Throwable throwable);
+
+		/**
+		 * Invoked once the sifter is shutdown and all results are delivered.
+		 */
+		public void onComplete();
+	}
+
+	/**
+	 * Demand of a subscriber.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Request up to n more results.
+		 * @param n Positive number of results.
+		 */
+		public void request(long n);
+
+		/**
+		 * Stop receiving, pending and further results are dropped.
+		 */
+		public void cancel();
+	}
+
+	/** Results waiting for demand. */
+	private final Queue<Pending<T>> queue = new ConcurrentLinkedQueue<>();
+	/** The subscriber, null if not subscribed yet. */
+	private final AtomicReference<Subscriber<? super T>> subscriber = new AtomicReference<>();
+	/** Outstanding demand. */
+	private final AtomicLong demand = new AtomicLong();
+	/** Serialize signals to the subscriber. */
+	private final AtomicInteger wip = new AtomicInteger();
+	/** Is the subscription cancelled? */
+	private volatile boolean cancelled;
+	/** Is the sifter shutdown? */
+	private volatile boolean completed;
+	/** Failure to signal, null if none. */
+	private volatile Throwable failure;
+	/** Is the subscriber terminated? */
+	private boolean terminated;
+
+	/**
+	 * Subscribe, only one subscriber is supported.
+	 * @param s The subscriber.
+	 */
+	public void subscribe(Subscriber<? super T> s) {
+		if (s == null)
+			throw new NullPointerException("Missing subscriber.");
+		if (!subscriber.compareAndSet(null, s)) {
+			s.onSubscribe(new Subscription() {
+
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			s.onError(new IllegalStateException("Only one subscriber is supported."));
+			return;
+		}
+		s.onSubscribe(new Subscription() {
+
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					failure = new IllegalArgumentException("Non-positive request " + n);
+				} else {
+					demand.accumulateAndGet(n,
+							(a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				drain();
+			}
+		});
+		drain();
+	}
+
+	/**
+	 * Offer a result of a flip.
+	 * @return completion once delivered, or dropped as cancelled.
+	 */
+	CompletableFuture<Void> offer(T item) {
+		final Pending<T> p = new Pending<>(item);
+		queue.add(p);
+		drain();
+		return p.done;
+	}
+
+	/**
+	 * Complete the subscriber once pending results are delivered.
+	 */
+	void complete() {
+		completed = true;
+		drain();
+	}
+
+	/**
+	 * Drop pending and further results without demand, the subscriber fails.
+	 * @param cause Cause signalled to the subscriber.
+	 */
+	void abandon(Throwable cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		drain();
+	}
+
+	/**
+	 * Deliver pending results within demand, by a single thread at a time.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		do {
+			final Subscriber<? super T> s = subscriber.get();
+			if (s != null && !cancelled) {
+				while (failure == null && demand.get() > 0 && !queue.isEmpty()) {
+					final Pending<T> p = queue.poll();
+					if (demand.get() != Long.MAX_VALUE) {
+						demand.decrementAndGet();
+					}
+					try {
+						s.onNext(p.item);
+						p.done.complete(null);
+					} catch (Throwable t) {
+						// The flip is poured back, and the subscriber is cancelled ...
+						p.done.completeExceptionally(t);
+						failure = t;
+					}
+				}
+				if (failure != null) {
+					cancelled = true;
+					if (!terminated) {
+						terminated = true;
+						s.onError(failure);
+					}
+				} else if (completed && queue.isEmpty() && !terminated) {
+					terminated = true;
+					s.onComplete();
+				}
+			}
+			if (cancelled || failure != null) {
+				Pending<T> p;
+				while ((p = queue.poll()) != null) {
+					p.done.complete(null);
+				}
+			}
+		} while (wip.decrementAndGet() != 0);
+	}
+
+	/**
+	 * A result waiting for demand.
+	 */
+	private static final class Pending<T> {
+
+		private final T item;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		private Pending(T item) {
+			this.item = item;
+		}
+	}
+}
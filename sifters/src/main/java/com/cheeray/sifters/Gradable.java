@@ -24,4 +24,11 @@ public interface Gradable<K> {
 	 */
 	public K getKey();
 
+	/**
+	 * Obtain estimated size in bytes, used by buckets limited in bytes.
+	 */
+	public default long getEstimatedSize() {
+		return 64;
+	}
+
 }
@@ -1,14 +1,23 @@
 package com.cheeray.sifters;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Define a grade for a target.
+ * <p>
+ * Grades created by {@link #from(Object...)} are interned in a canonical registry, each
+ * canonical grade carries a 128-bit hash computed once on registration, which is
+ * combined by {@link GradeKey} without any serialization on the sifting path.
+ * </p>
  * @param T type of target.
  * @author Chengwei.Yan
  */
@@ -16,22 +25,21 @@ public class Grade<T> implements Comparable<Grade<T>>, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Canonical grades, a grade is registered once per distinct level and spec. */
+	private static final ConcurrentHashMap<Grade<?>, Grade<?>> REGISTRY = new ConcurrentHashMap<>();
+	/** Max registered grades, beyond it only value specs hash on their own. */
+	private static final int MAX_REGISTERED = Integer.getInteger("sifter.grade.registry",
+			65536);
+
 	/**
 	 * Unique ID for a group of grades.
 	 * @param grades The group of grades.
+	 * @deprecated Derived view of {@link GradeKey#toUUID()}, use {@link GradeKey#of(Grade...)}
+	 * instead.
 	 */
+	@Deprecated
 	public static UUID toUUID(Grade<?>... grades) throws IOException {
-		Arrays.sort(grades);
-		try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-			try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
-				for (Grade<?> g : grades) {
-					os.writeInt(g.getLevel());
-					os.writeObject(g.getT());
-				}
-				os.flush();
-			}
-			return UUID.nameUUIDFromBytes(bos.toByteArray());
-		}
+		return GradeKey.of(grades).toUUID();
 	}
 
 	/**
@@ -42,18 +50,66 @@ public class Grade<T> implements Comparable<Grade<T>>, Serializable {
 		final Grade<?>[] grades = new Grade[ts.length];
 		int i = 0;
 		for (T t : ts) {
-			grades[i] = new Grade<>(i, t);
+			grades[i] = intern(new Grade<>(i, t));
 			i++;
 		}
 		return grades;
 	}
 
+	/**
+	 * Obtains the canonical instance of a grade. The registry is bounded by system property
+	 * <code>"sifter.grade.registry"</code>, default 65536. Once full, a grade of a value
+	 * spec, such as a string, number or enum, is hashed on its own written value, which is
+	 * equal for equal specs.
+	 * @param g A grade.
+	 * @throws IllegalArgumentException if the spec is not serializable.
+	 * @throws IllegalStateException if the registry is full and the spec is not a value.
+	 */
+	static Grade<?> intern(Grade<?> g) {
+		if (g.canonical) {
+			return g;
+		}
+		final Grade<?> c = REGISTRY.get(g);
+		if (c != null) {
+			return c;
+		}
+		if (REGISTRY.size() >= MAX_REGISTERED) {
+			// Serialized forms of equal specs may differ, never hashed on their own ...
+			if (!isValue(g.t)) {
+				throw new IllegalStateException("Grade registry is full of " + MAX_REGISTERED
+						+ " grades, raise \"sifter.grade.registry\" to grade on " + g);
+			}
+			g.seal();
+			return g;
+		}
+		g.seal();
+		final Grade<?> ex = REGISTRY.putIfAbsent(g, g);
+		return ex != null ? ex : g;
+	}
+
+	/**
+	 * Is a spec written by its value?
+	 */
+	private static boolean isValue(Object t) {
+		return t == null || t instanceof String || t instanceof Number
+				|| t instanceof Character || t instanceof Boolean || t instanceof Enum;
+	}
+
 	/** Grade level. */
 	private final int level;
 
 	/** Spec. */
 	private final T t;
 
+	/** High 64 bits of the grade hash, only set on canonical grades. */
+	private transient long hi;
+
+	/** Low 64 bits of the grade hash, only set on canonical grades. */
+	private transient long lo;
+
+	/** Is the hash computed? */
+	private transient volatile boolean canonical;
+
 	private Grade(int level, T t) {
 		this.level = level;
 		this.t = t;
@@ -67,6 +123,69 @@ public class Grade<T> implements Comparable<Grade<T>>, Serializable {
 		return t;
 	}
 
+	long getHi() {
+		return hi;
+	}
+
+	long getLo() {
+		return lo;
+	}
+
+	/**
+	 * Compute the 128-bit hash before registering as a canonical grade.
+	 */
+	private void seal() {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("MD5");
+			final ByteBuffer h = ByteBuffer.wrap(md.digest(toBytes()));
+			this.hi = h.getLong();
+			this.lo = h.getLong();
+			this.canonical = true;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 not supported.", e);
+		}
+	}
+
+	/**
+	 * Encode level and spec into bytes, value types are written directly, other specs are
+	 * serialized.
+	 * @throws IllegalArgumentException if the spec is not serializable, grades are keyed
+	 * by their bytes so distinct specs must not share a hash code.
+	 */
+	private byte[] toBytes() {
+		try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+			try (DataOutputStream os = new DataOutputStream(bos)) {
+				os.writeInt(level);
+				if (t == null) {
+					os.writeByte(0);
+				} else {
+					os.writeByte(1);
+					os.writeUTF(t.getClass().getName());
+					if (isValue(t)) {
+						os.writeUTF(t.toString());
+					} else {
+						try (ObjectOutputStream oos = new ObjectOutputStream(os)) {
+							oos.writeObject(t);
+						} catch (IOException e) {
+							throw new IllegalArgumentException("Spec is not serializable: " + t,
+									e);
+						}
+					}
+				}
+			}
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to encode " + this, e);
+		}
+	}
+
+	/**
+	 * Replace a deserialized grade by its canonical instance.
+	 */
+	private Object readResolve() {
+		return intern(this);
+	}
+
 	@Override
 	public int compareTo(Grade<T> o) {
 		return level - o.level;
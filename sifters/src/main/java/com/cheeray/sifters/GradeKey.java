@@ -0,0 +1,110 @@
+package com.cheeray.sifters;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Unique key for a group of grades, used to identify a bucket.
+ * <p>
+ * The key combines the precomputed 128-bit hashes of the canonical grades, it is
+ * independent of the order of grades and never sorts them. The key holds its own copy of
+ * the canonical grades, so the given array may be reused by the caller.
+ * </p>
+ * @author Chengwei.Yan
+ */
+public final class GradeKey implements Comparable<GradeKey>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Key of a group of grades.
+	 * @param grades The group of grades.
+	 */
+	public static GradeKey of(Grade<?>... grades) {
+		final Grade<?>[] gs = new Grade<?>[grades.length];
+		long hi = 0;
+		long lo = 0;
+		for (int i = 0; i < grades.length; i++) {
+			final Grade<?> g = Grade.intern(grades[i]);
+			gs[i] = g;
+			hi += g.getHi();
+			lo += g.getLo();
+		}
+		return new GradeKey(mix(hi ^ gs.length), mix(lo + gs.length), gs);
+	}
+
+	/**
+	 * Finalize a 64-bit hash.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** High 64 bits. */
+	private final long hi;
+	/** Low 64 bits. */
+	private final long lo;
+	/** Grades of the key. */
+	private final Grade<?>[] grades;
+
+	private GradeKey(long hi, long lo, Grade<?>[] grades) {
+		this.hi = hi;
+		this.lo = lo;
+		this.grades = grades;
+	}
+
+	/**
+	 * Obtains a copy of the grades of the key.
+	 */
+	public Grade<?>[] getGrades() {
+		return grades.clone();
+	}
+
+	long getHi() {
+		return hi;
+	}
+
+	long getLo() {
+		return lo;
+	}
+
+	/**
+	 * Derived UUID view of the key.
+	 */
+	public UUID toUUID() {
+		return new UUID(hi, lo);
+	}
+
+	@Override
+	public int compareTo(GradeKey o) {
+		final int c = Long.compare(hi, o.hi);
+		return c != 0 ? c : Long.compare(lo, o.lo);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (lo ^ (lo >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		GradeKey other = (GradeKey) obj;
+		return hi == other.hi && lo == other.lo;
+	}
+
+	@Override
+	public String toString() {
+		return toUUID().toString();
+	}
+}
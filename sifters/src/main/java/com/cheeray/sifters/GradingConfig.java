@@ -7,14 +7,58 @@ final class GradingConfig {
 	private final Grade<?>[] grades;
 	private final long delay;
 	private final TimeUnit unit;
+	private final long maxEntries;
+	private final long maxBytes;
+	private final FlipPolicy policy;
+	private final int subBuckets;
 
 	/**
 	 * Constructor
 	 */
 	GradingConfig(long delay, TimeUnit unit, Grade<?>... grades) {
+		this(delay, unit, Long.MAX_VALUE, Long.MAX_VALUE, grades);
+	}
+
+	/**
+	 * Constructor
+	 */
+	GradingConfig(long delay, TimeUnit unit, long maxEntries, long maxBytes,
+			Grade<?>... grades) {
+		this(delay, unit, maxEntries, maxBytes, null, 1, grades);
+	}
+
+	/**
+	 * Constructor
+	 */
+	private GradingConfig(long delay, TimeUnit unit, long maxEntries, long maxBytes,
+			FlipPolicy policy, int subBuckets, Grade<?>... grades) {
+		if (maxEntries <= 0 || maxBytes <= 0) {
+			throw new IllegalArgumentException("Bucket limits must be positive.");
+		}
 		this.grades = grades;
 		this.delay = delay;
 		this.unit = unit;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		this.subBuckets = subBuckets;
+	}
+
+	/**
+	 * The configuration with adaptive flip delays, starting from the configured delay.
+	 */
+	GradingConfig adaptive(FlipPolicy policy) {
+		return new GradingConfig(delay, unit, maxEntries, maxBytes, policy, subBuckets,
+				grades);
+	}
+
+	/**
+	 * The configuration with sub-buckets of each bucket.
+	 * @param subBuckets Number of sub-buckets, 0 to split by contention of writers.
+	 */
+	GradingConfig subBuckets(int subBuckets) {
+		return new GradingConfig(delay, unit, maxEntries, maxBytes, policy, subBuckets,
+				grades);
 	}
 
 	public Grade<?>[] getGrades() {
@@ -28,4 +72,26 @@ final class GradingConfig {
 	public TimeUnit getUnit() {
 		return unit;
 	}
-}
\ No newline at end of file
+
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Obtains the adaptive flip policy, null if the delay is fixed.
+	 */
+	public FlipPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Obtains number of sub-buckets of a bucket, 0 if split by contention of writers.
+	 */
+	public int getSubBuckets() {
+		return subBuckets;
+	}
+}
@@ -0,0 +1,59 @@
+package com.cheeray.sifters;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Entries of any key type backed by a <code>ConcurrentHashMap</code>.
+ * @author Chengwei.Yan
+ */
+final class HashEntries<K, D extends Gradable<K>> implements Entries<K, D> {
+
+	private final ConcurrentHashMap<K, D> map = new ConcurrentHashMap<>();
+
+	@Override
+	public D putIfAbsent(D d) {
+		return map.putIfAbsent(d.getKey(), d);
+	}
+
+	@Override
+	public boolean replace(D ex, D d) {
+		return map.replace(d.getKey(), ex, d);
+	}
+
+	@Override
+	public boolean remove(D d) {
+		return map.remove(d.getKey(), d);
+	}
+
+	@Override
+	public D get(K key) {
+		return map.get(key);
+	}
+
+	@Override
+	public int compareVersion(D a, D b) {
+		return a.getVersion().compareTo(b.getVersion());
+	}
+
+	@Override
+	public long size() {
+		return map.mappingCount();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override
+	public Collection<D> values() {
+		return map.values();
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super K, ? super D> action) {
+		map.forEach(Runtime.getRuntime().availableProcessors(), action);
+	}
+}
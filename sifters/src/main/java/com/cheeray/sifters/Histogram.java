@@ -0,0 +1,124 @@
+package com.cheeray.sifters;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, each power of two is split into 8 linear ranges so
+ * a reported percentile is within 12.5% of the recorded value. Recording never allocates,
+ * and histograms are merged by adding counts of ranges.
+ * @author Chengwei.Yan
+ */
+public final class Histogram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Sub ranges per power of two. */
+	private static final int SUB_BITS = 3;
+	private static final int SUB = 1 << SUB_BITS;
+
+	/**
+	 * Index of the range of a value.
+	 */
+	private static int index(long v) {
+		if (v < SUB) {
+			return (int) v;
+		}
+		final int exp = 63 - Long.numberOfLeadingZeros(v);
+		return (exp - SUB_BITS + 1) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+	}
+
+	/**
+	 * Highest value of a range.
+	 */
+	private static long upper(int i) {
+		if (i < SUB) {
+			return i;
+		}
+		final int shift = i / SUB - 1;
+		return ((long) (SUB + i % SUB) << shift) + (1L << shift) - 1;
+	}
+
+	/** Counts of ranges. */
+	private final AtomicLongArray counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+	/** Number of values. */
+	private final LongAdder count = new LongAdder();
+	/** Sum of values. */
+	private final LongAdder sum = new LongAdder();
+	/** Max value. */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value, negative values are recorded as zero.
+	 */
+	public void record(long v) {
+		if (v < 0) {
+			v = 0;
+		}
+		counts.incrementAndGet(index(v));
+		count.increment();
+		sum.add(v);
+		long m;
+		while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+		}
+	}
+
+	/**
+	 * Merge values recorded by another histogram.
+	 * @return this histogram.
+	 */
+	public Histogram merge(Histogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			final long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		count.add(other.count.sum());
+		sum.add(other.sum.sum());
+		final long v = other.max.get();
+		long m;
+		while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+		}
+		return this;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		final long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Obtains the value at a percentile.
+	 * @param p Percentile between 0 and 100.
+	 * @return the highest value of the range holding the percentile, 0 if empty.
+	 */
+	public long getPercentile(double p) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(total * p / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upper(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
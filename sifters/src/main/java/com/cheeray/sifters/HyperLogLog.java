@@ -0,0 +1,82 @@
+package com.cheeray.sifters;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HyperLogLog estimate of distinct values in <code>2^precision</code> registers, with a
+ * standard error of about <code>1.04 / sqrt(2^precision)</code>. Adding is lock-free.
+ * @author Chengwei.Yan
+ */
+public final class HyperLogLog implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Bits of register index. */
+	private final int precision;
+	/** Registers of max ranks. */
+	private final AtomicIntegerArray registers;
+
+	/**
+	 * Constructor
+	 * @param precision Bits of register index, between 4 and 18.
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18)
+			throw new IllegalArgumentException("Precision must be between 4 and 18.");
+		this.precision = precision;
+		this.registers = new AtomicIntegerArray(1 << precision);
+	}
+
+	/**
+	 * Add a 64-bit hash of a value.
+	 */
+	public void add(long hash) {
+		final int i = (int) (hash >>> (64 - precision));
+		final int rank = Long.numberOfLeadingZeros((hash << precision)
+				| (1L << (precision - 1))) + 1;
+		int r;
+		while (rank > (r = registers.get(i)) && !registers.compareAndSet(i, r, rank)) {
+		}
+	}
+
+	/**
+	 * Obtains the estimate of distinct values.
+	 */
+	public long estimate() {
+		final int m = registers.length();
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < m; i++) {
+			final int r = registers.get(i);
+			sum += 1.0 / (1L << r);
+			if (r == 0) {
+				zeros++;
+			}
+		}
+		final double alpha = m == 16 ? 0.673
+				: m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		final double e = alpha * m * m / sum;
+		if (e <= 2.5 * m && zeros > 0) {
+			// Small range correction ...
+			return Math.round(m * Math.log((double) m / zeros));
+		}
+		return Math.round(e);
+	}
+
+	/**
+	 * Merge registers of another estimate of the same precision.
+	 * @return this estimate.
+	 */
+	public HyperLogLog merge(HyperLogLog other) {
+		if (other.precision != precision)
+			throw new IllegalArgumentException("Precisions are different.");
+		for (int i = 0; i < registers.length(); i++) {
+			final int rank = other.registers.get(i);
+			int r;
+			while (rank > (r = registers.get(i)) && !registers.compareAndSet(i, r, rank)) {
+			}
+		}
+		return this;
+	}
+}
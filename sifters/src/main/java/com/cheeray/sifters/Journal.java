@@ -0,0 +1,184 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of sifted targets in memory-mapped segment files. Appends reserve
+ * their position in the active segment without a lock, only rolling a full segment is
+ * serialized. Appends are flushed to disk by a periodic group commit, a segment is
+ * deleted once every epoch holding its targets is collected.
+ * <p>
+ * Set system property <code>"sifter.journal.segment.bytes"</code> for the size of a
+ * segment file, default 64MB. And <code>"sifter.journal.sync.mills"</code> for the period
+ * of group commits in milliseconds, default 10.
+ * </p>
+ * <p>
+ * The directory is locked by a single journal, another journal on it fails until the
+ * first is closed or its process exits.
+ * </p>
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+final class Journal<D> {
+
+	private final static Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+	/** Suffix of segment files. */
+	private static final String SUFFIX = ".wal";
+	/** Name of the lock file of a directory. */
+	private static final String LOCK = "journal.lock";
+
+	/** Directory of segment files. */
+	private final Path dir;
+	/** Codec of targets. */
+	private final Codec<D> codec;
+	/** Size of a segment file. */
+	private final int segmentBytes;
+	/** Period of group commits. */
+	private final long syncMillis;
+	/** Segments left by a previous run, to be replayed. */
+	private final List<JournalSegment> recovered;
+	/** Segment being appended. */
+	private volatile JournalSegment active;
+	/** Is the journal closed? */
+	private boolean closed;
+	/** Lock of the directory. */
+	private final FileLock lock;
+
+	/**
+	 * Constructor
+	 */
+	Journal(Path dir, Codec<D> codec) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.lock = lock(dir.resolve(LOCK));
+		this.codec = codec;
+		this.segmentBytes = Integer.getInteger("sifter.journal.segment.bytes", 64 << 20);
+		this.syncMillis = Long.getLong("sifter.journal.sync.mills", 10);
+		this.recovered = new ArrayList<>();
+		long seq = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path f : files) {
+				final String n = f.getFileName().toString();
+				try {
+					final long s = Long.parseLong(n.substring(0, n.length() - SUFFIX.length()));
+					recovered.add(new JournalSegment(s, f, 0));
+					seq = Math.max(seq, s);
+				} catch (NumberFormatException e) {
+					LOG.warn("Ignored unknown journal file {}.", f);
+				}
+			}
+		}
+		recovered.sort(Comparator.comparingLong(JournalSegment::getSeq));
+		this.active = segment(seq + 1, segmentBytes);
+	}
+
+	/**
+	 * Lock the directory.
+	 * @throws IOException if the directory is locked by another journal.
+	 */
+	private static FileLock lock(Path file) throws IOException {
+		final FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		FileLock l;
+		try {
+			l = ch.tryLock();
+		} catch (OverlappingFileLockException e) {
+			l = null;
+		}
+		if (l == null) {
+			ch.close();
+			throw new IOException("Journal directory is in use: " + file.getParent());
+		}
+		return l;
+	}
+
+	private JournalSegment segment(long seq, int capacity) throws IOException {
+		return new JournalSegment(seq,
+				dir.resolve(String.format("%019d", seq) + SUFFIX), capacity);
+	}
+
+	Codec<D> getCodec() {
+		return codec;
+	}
+
+	long getSyncMillis() {
+		return syncMillis;
+	}
+
+	/**
+	 * Obtains segments left by a previous run.
+	 */
+	List<JournalSegment> getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Append a target held by an epoch, the epoch refers to the segment until collected.
+	 * @param d The target.
+	 * @param e The epoch.
+	 */
+	void append(D d, Epoch<?, ?> e) throws IOException {
+		final byte[] bytes = codec.encode(d);
+		for (;;) {
+			final JournalSegment s = active;
+			// Referred before appended, so a roll does not delete it under the append ...
+			e.journaled(s);
+			if (s.append(bytes)) {
+				return;
+			}
+			roll(s, bytes.length);
+		}
+	}
+
+	/**
+	 * Replace a full segment by a new one, unless already rolled by another append.
+	 * @param full The full segment.
+	 * @param length Length of the record to append.
+	 * @throws IOException if the journal is closed.
+	 */
+	private synchronized void roll(JournalSegment full, int length) throws IOException {
+		if (closed) {
+			throw new IOException("Journal is closed: " + dir);
+		}
+		if (active == full) {
+			active = segment(full.getSeq() + 1, Math.max(segmentBytes, length + 8));
+			full.seal();
+		}
+	}
+
+	/**
+	 * Group commit of appended targets.
+	 */
+	void sync() {
+		active.force();
+	}
+
+	/**
+	 * Flush and seal the active segment, deleted if no epoch refers to it, then release
+	 * the directory.
+	 */
+	synchronized void close() throws IOException {
+		closed = true;
+		try {
+			active.seal();
+		} finally {
+			if (lock.isValid()) {
+				lock.release();
+			}
+			lock.channel().close();
+		}
+	}
+}
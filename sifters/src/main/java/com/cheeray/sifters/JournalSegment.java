@@ -0,0 +1,161 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped segment file of a journal, records are length and checksum prefixed so
+ * a torn tail is detected on replay. Appends reserve their range by a CAS on the tail
+ * and write concurrently, the length of a record is written last. A sealed segment is
+ * deleted once no epoch refers to it.
+ * @author Chengwei.Yan
+ */
+final class JournalSegment {
+
+	/** Sequence of the segment. */
+	private final long seq;
+	/** Segment file. */
+	private final Path file;
+	/** Mapped content. */
+	private final MappedByteBuffer buf;
+	/** Epochs referring to the segment. */
+	private final AtomicInteger refs = new AtomicInteger();
+	/** End of the reserved records. */
+	private final AtomicInteger tail = new AtomicInteger();
+	/** Appends in progress. */
+	private final AtomicInteger writers = new AtomicInteger();
+	/** No more records are appended. */
+	private volatile boolean sealed;
+	/** Is the file deleted? */
+	private final AtomicBoolean deleted = new AtomicBoolean();
+
+	/**
+	 * Create or open a segment file.
+	 * @param seq Sequence of the segment.
+	 * @param file The segment file.
+	 * @param capacity Capacity in bytes of a new file, ignored for an exist file.
+	 */
+	JournalSegment(long seq, Path file, int capacity) throws IOException {
+		this.seq = seq;
+		this.file = file;
+		final boolean exists = Files.exists(file);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+					exists ? ch.size() : capacity);
+		}
+		this.sealed = exists;
+		if (exists) {
+			tail.set(buf.capacity());
+		}
+	}
+
+	long getSeq() {
+		return seq;
+	}
+
+	/**
+	 * Append a record, a sealed segment is flushed once its last append is done.
+	 * @param bytes The record.
+	 * @return false if no enough room or sealed.
+	 */
+	boolean append(byte[] bytes) {
+		final int n = bytes.length + 8;
+		writers.incrementAndGet();
+		try {
+			int p;
+			do {
+				p = tail.get();
+				if (sealed || p > buf.capacity() - n) {
+					return false;
+				}
+			} while (!tail.compareAndSet(p, p + n));
+			final CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			final ByteBuffer w = buf.duplicate();
+			((Buffer) w).position(p + 8);
+			w.put(bytes);
+			buf.putInt(p + 4, (int) crc.getValue());
+			// Readable once the length is written ...
+			buf.putInt(p, bytes.length);
+			return true;
+		} finally {
+			if (writers.decrementAndGet() == 0 && sealed) {
+				force();
+			}
+		}
+	}
+
+	/**
+	 * Flush appended records to disk.
+	 */
+	void force() {
+		if (!deleted.get()) {
+			buf.force();
+		}
+	}
+
+	/**
+	 * Read records from the start, stop at the first empty or torn record.
+	 * @param reader Reader of a record.
+	 */
+	void read(SpillSegment.RecordReader reader) throws IOException {
+		final ByteBuffer r = buf.duplicate();
+		((Buffer) r).position(0);
+		final CRC32 crc = new CRC32();
+		while (r.remaining() >= 8) {
+			final int len = r.getInt();
+			final int sum = r.getInt();
+			if (len <= 0 || len > r.remaining()) {
+				break;
+			}
+			final byte[] bytes = new byte[len];
+			r.get(bytes);
+			crc.reset();
+			crc.update(bytes, 0, len);
+			if ((int) crc.getValue() != sum) {
+				break;
+			}
+			reader.read(bytes);
+		}
+	}
+
+	void retain() {
+		refs.incrementAndGet();
+	}
+
+	/**
+	 * An epoch no longer refers to the segment.
+	 */
+	void release() throws IOException {
+		if (refs.decrementAndGet() == 0 && sealed) {
+			delete();
+		}
+	}
+
+	/**
+	 * No more records, deleted once no epoch refers to it.
+	 */
+	void seal() throws IOException {
+		sealed = true;
+		force();
+		if (refs.get() == 0) {
+			delete();
+		}
+	}
+
+	private void delete() throws IOException {
+		if (deleted.compareAndSet(false, true)) {
+			Files.deleteIfExists(file);
+		}
+	}
+}
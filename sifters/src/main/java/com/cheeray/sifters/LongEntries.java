@@ -0,0 +1,244 @@
+package com.cheeray.sifters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Entries of {@link LongGradable} targets in segments of open-addressing tables, keys are
+ * kept in primitive arrays so no key is boxed and no node is allocated per entry. Each
+ * segment is guarded by its own lock, traversals copy the table of a segment under its
+ * lock and visit the copy outside of it.
+ * @author Chengwei.Yan
+ */
+final class LongEntries implements Entries<Long, LongGradable> {
+
+	/** Initial capacity of a segment table. */
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * Finalize a 64-bit hash.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** Segments, selected by high bits of key hash. */
+	private final Segment[] segments;
+	/** Shift of key hash to a segment index. */
+	private final int shift;
+
+	/**
+	 * Constructor
+	 */
+	LongEntries() {
+		int n = 2;
+		while (n < Runtime.getRuntime().availableProcessors() * 4) {
+			n <<= 1;
+		}
+		this.segments = new Segment[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = new Segment();
+		}
+		this.shift = 64 - Integer.numberOfTrailingZeros(n);
+	}
+
+	private Segment segment(long h) {
+		return segments[(int) (h >>> shift)];
+	}
+
+	@Override
+	public LongGradable putIfAbsent(LongGradable d) {
+		final long k = d.getKeyAsLong();
+		final long h = mix(k);
+		final Segment s = segment(h);
+		synchronized (s) {
+			final int i = s.indexOf(k, h);
+			if (i >= 0) {
+				return s.values[i];
+			}
+			s.insert(~i, k, d);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean replace(LongGradable ex, LongGradable d) {
+		final long k = d.getKeyAsLong();
+		final long h = mix(k);
+		final Segment s = segment(h);
+		synchronized (s) {
+			final int i = s.indexOf(k, h);
+			if (i >= 0 && s.values[i] == ex) {
+				s.values[i] = d;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public boolean remove(LongGradable d) {
+		final long k = d.getKeyAsLong();
+		final long h = mix(k);
+		final Segment s = segment(h);
+		synchronized (s) {
+			final int i = s.indexOf(k, h);
+			if (i >= 0 && s.values[i] == d) {
+				s.delete(i);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public LongGradable get(Long key) {
+		final long k = key.longValue();
+		final long h = mix(k);
+		final Segment s = segment(h);
+		synchronized (s) {
+			final int i = s.indexOf(k, h);
+			return i >= 0 ? s.values[i] : null;
+		}
+	}
+
+	@Override
+	public int compareVersion(LongGradable a, LongGradable b) {
+		return Long.compare(a.getVersionNanos(), b.getVersionNanos());
+	}
+
+	@Override
+	public long size() {
+		long n = 0;
+		for (Segment s : segments) {
+			n += s.size;
+		}
+		return n;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Segment s : segments) {
+			if (s.size != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Snapshot of targets.
+	 */
+	@Override
+	public Collection<LongGradable> values() {
+		final List<LongGradable> vs = new ArrayList<>((int) Math.min(size(),
+				Integer.MAX_VALUE - 8));
+		for (Segment s : segments) {
+			for (LongGradable d : s.copy()) {
+				if (d != null) {
+					vs.add(d);
+				}
+			}
+		}
+		return vs;
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super Long, ? super LongGradable> action) {
+		Arrays.stream(segments).parallel().forEach(s -> {
+			for (LongGradable d : s.copy()) {
+				if (d != null) {
+					action.accept(d.getKey(), d);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Linear probing table, a null value marks an empty slot.
+	 */
+	private static final class Segment {
+
+		private long[] keys = new long[MIN_CAPACITY];
+		private LongGradable[] values = new LongGradable[MIN_CAPACITY];
+		private volatile int size;
+
+		/**
+		 * Find the slot of a key.
+		 * @return the slot, or the complement of the empty slot to insert.
+		 */
+		int indexOf(long k, long h) {
+			final int mask = keys.length - 1;
+			int i = (int) h & mask;
+			while (values[i] != null) {
+				if (keys[i] == k) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+			return ~i;
+		}
+
+		void insert(int i, long k, LongGradable d) {
+			keys[i] = k;
+			values[i] = d;
+			size++;
+			if (size * 4L >= keys.length * 3L) {
+				resize();
+			}
+		}
+
+		/**
+		 * Delete a slot, shifting back later entries of the same probe sequence.
+		 */
+		void delete(int i) {
+			final int mask = keys.length - 1;
+			values[i] = null;
+			int j = i;
+			for (;;) {
+				j = (j + 1) & mask;
+				if (values[j] == null) {
+					break;
+				}
+				final int home = (int) mix(keys[j]) & mask;
+				// Move back unless its home lies cyclically in (i, j] ...
+				if (j > i ? (home <= i || home > j) : (home <= i && home > j)) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					values[j] = null;
+					i = j;
+				}
+			}
+			size--;
+		}
+
+		/**
+		 * Copy of the table, a null value marks an empty slot.
+		 */
+		synchronized LongGradable[] copy() {
+			return values.clone();
+		}
+
+		private void resize() {
+			final long[] ks = keys;
+			final LongGradable[] vs = values;
+			keys = new long[ks.length << 1];
+			values = new LongGradable[vs.length << 1];
+			for (int i = 0; i < ks.length; i++) {
+				if (vs[i] != null) {
+					final int j = ~indexOf(ks[i], mix(ks[i]));
+					keys[j] = ks[i];
+					values[j] = vs[i];
+				}
+			}
+		}
+	}
+}
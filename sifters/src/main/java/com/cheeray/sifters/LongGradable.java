@@ -0,0 +1,31 @@
+package com.cheeray.sifters;
+
+/**
+ * Gradable identified by a primitive key, <code>int</code> keys are widened. Buckets hold
+ * such targets in a primitive keyed map, without boxing keys or allocating a node per
+ * entry.
+ * @author Chengwei.Yan
+ */
+public interface LongGradable extends Gradable<Long> {
+
+	/**
+	 * Obtain the unique key.
+	 */
+	public long getKeyAsLong();
+
+	/**
+	 * Obtain version in nanoseconds, override to avoid creating an <code>Instant</code>
+	 * per comparison.
+	 */
+	public default long getVersionNanos() {
+		return getVersion().getEpochSecond() * 1_000_000_000L + getVersion().getNano();
+	}
+
+	/**
+	 * Obtain the boxed key, prefer {@link #getKeyAsLong()}.
+	 */
+	@Override
+	public default Long getKey() {
+		return getKeyAsLong();
+	}
+}
@@ -1,28 +1,53 @@
 package com.cheeray.sifters;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.concurrent.Executors;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Phaser;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Phaser of free memory ratio which block all waiters once the ratio is under configured.
  * <p>
- * Set system property <code>"sifter.mem.free.percent"</code> for free memory ratio,
- * default 30.
+ * The old generation heap pool is watched by usage and collection usage thresholds, the
+ * phaser blocks once the pool is still over the threshold after a collection, and
+ * releases when a later collection brings the pool under the release level. No polling
+ * thread is involved.
  * </p>
  * <p>
- * Set system property <code>"sifter.mem.period.mills"</code> for memory checking
- * frequency in milliseconds, default 500.
+ * Set system property <code>"sifter.mem.free.percent"</code> for free memory ratio of
+ * the old generation to block, default 30.
+ * </p>
+ * <p>
+ * Set system property <code>"sifter.mem.release.percent"</code> for free memory ratio
+ * of the old generation to release, default 10 more than the block ratio.
+ * </p>
+ * <p>
+ * Set system property <code>"sifter.mem.period.mills"</code> for how often a blocked
+ * waiter re-checks the pool in milliseconds, default 500.
  * </p>
  * @author Chengwei.Yan
  */
 public class MemPhaser {
 
+	private final static Logger LOG = LoggerFactory.getLogger(MemPhaser.class);
+
+	/** Notification type of a finished garbage collection. */
+	private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
 	/** Internal instance holder. */
 	private static class MemLockHolder {
 		private static MemPhaser INSTANCE = new MemPhaser();
@@ -35,65 +60,225 @@ public class MemPhaser {
 		return MemLockHolder.INSTANCE;
 	}
 
-	/** Memory checking scheduler. */
-	private final ScheduledExecutorService ex;
+	/**
+	 * Find the old generation heap pool, the heap pool supports collection usage
+	 * threshold with the largest max size.
+	 */
+	private static MemoryPoolMXBean tenured() {
+		MemoryPoolMXBean tenured = null;
+		for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (p.getType() == MemoryType.HEAP && p.isUsageThresholdSupported()
+					&& p.isCollectionUsageThresholdSupported()) {
+				if (tenured == null
+						|| p.getUsage().getMax() > tenured.getUsage().getMax()) {
+					tenured = p;
+				}
+			}
+		}
+		return tenured;
+	}
+
+	/** Watched old generation pool, null if not available. */
+	private final MemoryPoolMXBean pool;
+	/** Used bytes of the pool to block. */
+	private final long blockLevel;
+	/** Used bytes of the pool to release. */
+	private final long releaseLevel;
+	/** Period of re-checking the pool while blocked. */
+	private final long period;
 	/** Phaser. */
 	private final AtomicReference<Phaser> phaser;
-	
-	private final AtomicBoolean gc;
+	/** Listeners notified once blocking. */
+	private final CopyOnWriteArrayList<Runnable> listeners;
+	/** Times of blocking. */
+	private final LongAdder blocks;
+	/** Total time of finished blocks in nanoseconds. */
+	private final LongAdder blockedNanos;
+	/** Start of the current block. */
+	private volatile long blockedAt;
 
 	/**
 	 * Constructor
 	 */
 	private MemPhaser() {
 		this.phaser = new AtomicReference<>();
-		this.gc = new AtomicBoolean(false);
-		this.ex = Executors.newSingleThreadScheduledExecutor();
-		this.ex.scheduleAtFixedRate(new Runnable() {
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.blocks = new LongAdder();
+		this.blockedNanos = new LongAdder();
+		this.period = Long.getLong("sifter.mem.period.mills", 500);
+		final int free = Integer.getInteger("sifter.mem.free.percent", 30);
+		final int release = Math.min(100,
+				Integer.getInteger("sifter.mem.release.percent", free + 10));
+		this.pool = tenured();
+		if (pool == null) {
+			LOG.warn("No heap pool supports usage thresholds, memory is not throttled.");
+			this.blockLevel = Long.MAX_VALUE;
+			this.releaseLevel = Long.MAX_VALUE;
+			return;
+		}
+		final long max = pool.getUsage().getMax() > 0 ? pool.getUsage().getMax()
+				: Runtime.getRuntime().maxMemory();
+		this.blockLevel = max / 100 * (100 - free);
+		this.releaseLevel = Math.min(blockLevel, max / 100 * (100 - release));
+		pool.setUsageThreshold(blockLevel);
+		pool.setCollectionUsageThreshold(blockLevel);
+		final NotificationListener listener = new NotificationListener() {
 
 			@Override
-			public void run() {
-				final BigDecimal act = BigDecimal
-						.valueOf(Runtime.getRuntime().freeMemory() * 100l)
-						.divide(BigDecimal.valueOf(Runtime.getRuntime().totalMemory()), 2,
-								RoundingMode.DOWN);
-				/** Ratio of free MEM, used to restrict bucket capacity. */
-				final BigDecimal ratio = new BigDecimal(
-						System.getProperty("sifter.mem.free.percent", "30"));
-				if (act.compareTo(ratio) <= 0) {
-					// Block ...
-					phaser.compareAndSet(null, new Phaser(1));
-					if (Boolean
-							.parseBoolean(System.getProperty("sifter.mem.gc", "false"))) {
-						if(gc.compareAndSet(false, true)){
-							System.gc();
-						}
-					}
-				} else {
-					gc.compareAndSet(true, false);
-					// Release ...
-					final Phaser p = phaser.getAndSet(null);
-					if (p != null && !p.isTerminated()) {
-						p.forceTermination();
-					}
-				}
+			public void handleNotification(Notification n, Object handback) {
+				onNotification(n);
+			}
+		};
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+				.addNotificationListener(listener, null, null);
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(listener, null, null);
 			}
-		}, 0, Integer.parseInt(System.getProperty("sifter.mem.period.mills", "500")),
-				TimeUnit.MILLISECONDS);
+		}
+		LOG.info("Watching {}, block at {} bytes and release at {} bytes.",
+				pool.getName(), blockLevel, releaseLevel);
+	}
+
+	/**
+	 * React on memory threshold and garbage collection notifications.
+	 */
+	private void onNotification(Notification n) {
+		switch (n.getType()) {
+		case MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED:
+			block();
+			break;
+		case MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED:
+			// Only block if the last collection could not free enough ...
+			if (pool.getCollectionUsage() != null
+					&& pool.getCollectionUsage().getUsed() >= blockLevel) {
+				block();
+			}
+			break;
+		case GC_NOTIFICATION:
+			if (phaser.get() != null) {
+				check();
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Release blocked waiters if the pool is under release level.
+	 */
+	private void check() {
+		if (pool == null || pool.getUsage().getUsed() <= releaseLevel) {
+			release();
+		}
+	}
+
+	/**
+	 * Block all waiters.
+	 */
+	void block() {
+		if (phaser.compareAndSet(null, new Phaser(1))) {
+			blockedAt = System.nanoTime();
+			blocks.increment();
+			LOG.warn("Memory is over {} bytes, blocking ...", blockLevel);
+			listeners.forEach(Runnable::run);
+		}
+	}
+
+	/**
+	 * Release all waiters.
+	 */
+	void release() {
+		final Phaser p = phaser.getAndSet(null);
+		if (p != null && !p.isTerminated()) {
+			blockedNanos.add(System.nanoTime() - blockedAt);
+			LOG.info("Memory is under {} bytes, released.", releaseLevel);
+			p.forceTermination();
+		}
+	}
+
+	/**
+	 * Add a listener notified once blocking, it runs on the notification thread so must
+	 * return quickly.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener.
+	 */
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Obtains times of blocking.
+	 */
+	public long getBlocks() {
+		return blocks.sum();
+	}
+
+	/**
+	 * Obtains total time of blocking in milliseconds, including the current block.
+	 */
+	public long getBlockedMillis() {
+		long nanos = blockedNanos.sum();
+		if (isBlocking()) {
+			nanos += System.nanoTime() - blockedAt;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Is phaser blocking?
+	 */
+	public boolean isBlocking() {
+		return phaser.get() != null;
 	}
 
 	/**
 	 * Await on the memory ratio phase.
 	 */
 	public void await() {
-		final Phaser ph = phaser.getAndUpdate(p -> {
-			if (p != null && !p.isTerminated()) {
-				p.register();
+		boolean interrupted = false;
+		Phaser p;
+		while ((p = phaser.get()) != null) {
+			try {
+				p.awaitAdvanceInterruptibly(p.getPhase(), period, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				check();
+			} catch (InterruptedException e) {
+				interrupted = true;
 			}
-			return p;
-		});
-		if (ph != null) {
-			ph.arriveAndAwaitAdvance();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Await on the memory ratio phase for a bounded time.
+	 * @param timeout Max time to wait.
+	 * @param unit Time unit of timeout.
+	 * @return false if still blocking after timeout or interrupted.
+	 */
+	public boolean tryAwait(long timeout, TimeUnit unit) {
+		final Phaser p = phaser.get();
+		if (p == null) {
+			return true;
+		}
+		try {
+			p.awaitAdvanceInterruptibly(p.getPhase(), timeout, unit);
+			return true;
+		} catch (TimeoutException e) {
+			// Release for later waiters if memory was freed meanwhile ...
+			check();
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 }
@@ -0,0 +1,130 @@
+package com.cheeray.sifters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+
+/**
+ * Pre-aggregated panes of a window per bucket, a ring of the last panes of each grade
+ * key. Windows of grade keys not flipped in a pane are advanced to slide their panes
+ * out, the ring is removed once no pane is left.
+ * @param R Type of reduced result.
+ * @author Chengwei.Yan
+ */
+final class Panes<R> {
+
+	/** The window. */
+	private final Window window;
+	/** Combine two results. */
+	private final BinaryOperator<R> combiner;
+	/** Rings of panes, keyed by grades. */
+	private final ConcurrentHashMap<GradeKey, Ring> rings = new ConcurrentHashMap<>();
+
+	Panes(Window window, BinaryOperator<R> combiner) {
+		this.window = window;
+		this.combiner = combiner;
+	}
+
+	/**
+	 * Add a reduced flip into its pane.
+	 * @param key Grade key of the bucket.
+	 * @param pane Pane of the flip.
+	 * @param r Reduced result of the flip.
+	 * @return result of the window ending at the pane.
+	 */
+	R add(GradeKey key, long pane, R r) {
+		for (;;) {
+			final Ring ring = rings.computeIfAbsent(key,
+					k -> new Ring(window.getPanes(), pane));
+			synchronized (ring) {
+				// Retry if the ring was removed since obtained ...
+				if (!ring.removed) {
+					return ring.add(pane, r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Advance windows not flipped in a pane to end at the pane.
+	 * @param pane The current pane.
+	 * @param consumer Consume the advanced result of a window, null once no pane is left
+	 * and the ring is removed.
+	 */
+	void advance(long pane, BiConsumer<GradeKey, R> consumer) {
+		for (Map.Entry<GradeKey, Ring> e : rings.entrySet()) {
+			final Ring ring = e.getValue();
+			final R w;
+			synchronized (ring) {
+				if (ring.removed || ring.end >= pane) {
+					continue;
+				}
+				ring.end = pane;
+				w = ring.window();
+				if (w == null) {
+					ring.removed = true;
+					rings.remove(e.getKey(), ring);
+				}
+			}
+			consumer.accept(e.getKey(), w);
+		}
+	}
+
+	int size() {
+		return rings.size();
+	}
+
+	/**
+	 * Last panes of a bucket.
+	 */
+	private final class Ring {
+
+		private final long[] panes;
+		private final Object[] results;
+		/** Pane the window ends at, the latest pane added or advanced to. */
+		private long end;
+		/** Is the ring removed from the window? */
+		private boolean removed;
+
+		private Ring(int n, long pane) {
+			this.panes = new long[n];
+			this.results = new Object[n];
+			this.end = pane;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized R add(long pane, R r) {
+			final int n = panes.length;
+			if (pane <= end - n) {
+				// Out of the window ...
+				return window();
+			}
+			final int slot = (int) Math.floorMod(pane, (long) n);
+			if (results[slot] != null && panes[slot] == pane) {
+				// Flipped again in the same pane ...
+				results[slot] = combiner.apply((R) results[slot], r);
+			} else {
+				panes[slot] = pane;
+				results[slot] = r;
+			}
+			end = Math.max(end, pane);
+			return window();
+		}
+
+		/**
+		 * Combine panes of the window ending at the end pane, null if none is left.
+		 */
+		@SuppressWarnings("unchecked")
+		private R window() {
+			final int n = panes.length;
+			R w = null;
+			for (int i = 0; i < n; i++) {
+				if (results[i] != null && panes[i] > end - n) {
+					w = w == null ? (R) results[i] : combiner.apply(w, (R) results[i]);
+				}
+			}
+			return w;
+		}
+	}
+}
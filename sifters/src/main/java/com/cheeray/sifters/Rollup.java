@@ -0,0 +1,83 @@
+package com.cheeray.sifters;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+
+/**
+ * Roll-up of reduced results of flipped buckets over prefixes of grade levels. Results
+ * of buckets flipped since the last roll are combined level by level in a single pass,
+ * each coarser prefix from its children, so targets are sifted and reduced once.
+ * @param R Type of reduced result.
+ * @author Chengwei.Yan
+ */
+final class Rollup<R> {
+
+	/** Order grades by level. */
+	private static final Comparator<Grade<?>> BY_LEVEL = Comparator.comparingInt(Grade::getLevel);
+
+	/** Combine two results. */
+	private final BinaryOperator<R> combiner;
+	/** Consumer of a result of every prefix. */
+	private final BiConsumer<GradeKey, R> consumer;
+	/** Results of buckets flipped since the last roll. */
+	private Map<GradeKey, R> flipped = new HashMap<>();
+
+	Rollup(BinaryOperator<R> combiner, BiConsumer<GradeKey, R> consumer) {
+		this.combiner = combiner;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Add a result of a flipped bucket.
+	 */
+	synchronized void add(GradeKey key, R r) {
+		flipped.merge(key, r, combiner);
+	}
+
+	/**
+	 * Consume results of flipped buckets and of every coarser prefix of their grades.
+	 */
+	void roll() {
+		final Map<GradeKey, R> rs;
+		synchronized (this) {
+			if (flipped.isEmpty()) {
+				return;
+			}
+			rs = flipped;
+			flipped = new HashMap<>();
+		}
+		// Levels from the finest ...
+		final TreeMap<Integer, Map<GradeKey, R>> levels = new TreeMap<>(
+				Collections.reverseOrder());
+		rs.forEach((k, r) -> {
+			levels.computeIfAbsent(k.getGrades().length, n -> new HashMap<>()).merge(k, r,
+					combiner);
+		});
+		while (!levels.isEmpty()) {
+			final Map.Entry<Integer, Map<GradeKey, R>> level = levels.pollFirstEntry();
+			final int n = level.getKey();
+			level.getValue().forEach((k, r) -> {
+				consumer.accept(k, r);
+				if (n > 1) {
+					levels.computeIfAbsent(n - 1, i -> new HashMap<>()).merge(parent(k), r,
+							combiner);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Key of the grades without the finest level.
+	 */
+	private static GradeKey parent(GradeKey k) {
+		final Grade<?>[] gs = k.getGrades();
+		Arrays.sort(gs, BY_LEVEL);
+		return GradeKey.of(Arrays.copyOf(gs, gs.length - 1));
+	}
+}
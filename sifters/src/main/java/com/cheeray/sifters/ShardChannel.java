@@ -0,0 +1,269 @@
+package com.cheeray.sifters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection of a router to a sifter node. Targets are batched, a batch is sent once
+ * full or flushed, and up to a window of batches are in flight waiting for acks.
+ * <p>
+ * Once the connection failed, targets of the current batch and of batches waiting for
+ * acks are kept until drained to be routed again.
+ * </p>
+ * @author Chengwei.Yan
+ */
+final class ShardChannel implements Closeable {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ShardChannel.class);
+
+	/** The node. */
+	private final InetSocketAddress node;
+	/** Connected channel. */
+	private final SocketChannel ch;
+	/** Max targets of a batch. */
+	private final int batchSize;
+	/** Batches in flight. */
+	private final Semaphore window;
+	/** Batches waiting for acks, keyed by sequence. */
+	private final ConcurrentHashMap<Long, Batch> pending;
+	/** Targets rejected by the node as ungraded. */
+	private final LongAdder ungraded;
+	/** Targets the node failed to sift. */
+	private final LongAdder failed;
+	/** The current batch. */
+	private Batch batch;
+	/** Sequence of the next batch. */
+	private long seq;
+	/** Failure of the connection, null if healthy. */
+	private volatile IOException failure;
+	/** Is the channel retired from routing? */
+	private boolean retired;
+
+	/**
+	 * A target routed to the node.
+	 */
+	static final class Routed {
+		final GradeKey key;
+		final byte[] bytes;
+
+		Routed(GradeKey key, byte[] bytes) {
+			this.key = key;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Targets sent in a frame.
+	 */
+	private static final class Batch {
+		final List<GradeKey> keys;
+		final List<byte[]> records;
+		final CompletableFuture<Void> acked;
+		int bytes;
+
+		Batch(int size) {
+			this.keys = new ArrayList<>(size);
+			this.records = new ArrayList<>(size);
+			this.acked = new CompletableFuture<>();
+		}
+	}
+
+	/**
+	 * Connect to a node.
+	 * @param node The node.
+	 * @param batchSize Max targets of a batch.
+	 * @param window Max batches in flight.
+	 * @param ungraded Counter of targets rejected as ungraded.
+	 * @param failed Counter of targets failed to be sifted.
+	 */
+	ShardChannel(InetSocketAddress node, int batchSize, int window, LongAdder ungraded,
+			LongAdder failed) throws IOException {
+		this.node = node;
+		this.batchSize = batchSize;
+		this.window = new Semaphore(window);
+		this.pending = new ConcurrentHashMap<>();
+		this.ungraded = ungraded;
+		this.failed = failed;
+		this.batch = new Batch(batchSize);
+		this.ch = SocketChannel.open(node);
+		this.ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final Thread t = new Thread(this::receive, "sifter-router-" + node);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Add an encoded target to the current batch, sent once full.
+	 * @param key Grade key of the target.
+	 * @param bytes Encoded target.
+	 * @return false if the channel is retired or failed, the target is to be routed again.
+	 */
+	synchronized boolean add(GradeKey key, byte[] bytes) {
+		if (retired || failure != null) {
+			return false;
+		}
+		batch.keys.add(key);
+		batch.records.add(bytes);
+		batch.bytes += bytes.length;
+		if (batch.records.size() >= batchSize) {
+			try {
+				flush();
+			} catch (IOException e) {
+				// Kept to be drained once the failed channel is evicted ...
+				LOG.error("Failed to send a batch to " + node, e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Retire from routing once adds in progress are done, no more targets are added.
+	 */
+	synchronized void retire() {
+		retired = true;
+	}
+
+	/**
+	 * Has the connection failed?
+	 */
+	boolean isFailed() {
+		return failure != null;
+	}
+
+	/**
+	 * Send the current batch, waiting while the window is exhausted.
+	 * @throws IOException if the connection failed, the batch is kept to be drained.
+	 */
+	synchronized void flush() throws IOException {
+		if (failure != null) {
+			throw new IOException("Connection to " + node + " failed.", failure);
+		}
+		if (batch.records.isEmpty()) {
+			return;
+		}
+		try {
+			window.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for acks of " + node);
+		}
+		final long s = seq++;
+		final Batch b = batch;
+		pending.put(s, b);
+		batch = new Batch(batchSize);
+		try {
+			ShardFrames.writeFully(ch, ShardFrames.batch(s, b.records, b.bytes));
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Obtains completion of batches sent so far, completed exceptionally if the
+	 * connection failed before acknowledged.
+	 */
+	CompletableFuture<Void> acked() {
+		return CompletableFuture.allOf(pending.values().stream().map(b -> b.acked)
+				.toArray(CompletableFuture<?>[]::new));
+	}
+
+	/**
+	 * Obtains number of targets not acknowledged yet, including the current batch.
+	 */
+	synchronized int getUnacked() {
+		int n = batch.records.size();
+		for (Batch b : pending.values()) {
+			n += b.records.size();
+		}
+		return n;
+	}
+
+	/**
+	 * Take targets not acknowledged by a failed connection, to be routed again.
+	 */
+	synchronized List<Routed> drain() {
+		final List<Routed> rs = new ArrayList<>();
+		for (Long s : pending.keySet()) {
+			final Batch b = pending.remove(s);
+			if (b != null) {
+				drain(b, rs);
+			}
+		}
+		drain(batch, rs);
+		batch = new Batch(batchSize);
+		return rs;
+	}
+
+	private static void drain(Batch b, List<Routed> rs) {
+		for (int i = 0; i < b.records.size(); i++) {
+			rs.add(new Routed(b.keys.get(i), b.records.get(i)));
+		}
+	}
+
+	/**
+	 * Receive acks until disconnected.
+	 */
+	private void receive() {
+		final ByteBuffer ack = ByteBuffer.allocate(ShardFrames.ACK_LENGTH);
+		try {
+			for (;;) {
+				((Buffer) ack).clear();
+				if (!ShardFrames.readFully(ch, ack)) {
+					throw new IOException("Disconnected by " + node);
+				}
+				if (ack.get() != ShardFrames.ACK) {
+					throw new IOException("Unknown frame from " + node);
+				}
+				final Batch b = pending.remove(ack.getLong());
+				ack.getInt();
+				ungraded.add(ack.getInt());
+				final int f = ack.getInt();
+				if (f > 0) {
+					LOG.error("{} failed to sift {} targets.", node, f);
+					failed.add(f);
+				}
+				if (b == null || b.acked.complete(null)) {
+					window.release();
+				}
+			}
+		} catch (IOException e) {
+			if (ch.isOpen()) {
+				LOG.error("Lost connection to " + node, e);
+			}
+			fail(e);
+		}
+	}
+
+	/**
+	 * Fail completion of batches waiting for acks, their targets are kept to be drained.
+	 */
+	private void fail(IOException e) {
+		failure = e;
+		for (Batch b : pending.values()) {
+			if (b.acked.completeExceptionally(e)) {
+				window.release();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
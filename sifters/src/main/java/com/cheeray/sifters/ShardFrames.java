@@ -0,0 +1,104 @@
+package com.cheeray.sifters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Binary frames between a router and sifter nodes, all integers are big endian.
+ * <ul>
+ * <li>Batch: type <code>1</code>, sequence (8 bytes), payload length (4 bytes), count
+ * (4 bytes), then each encoded target prefixed by its length (4 bytes).</li>
+ * <li>Ack: type <code>2</code>, sequence (8 bytes), sifted (4 bytes), ungraded (4
+ * bytes), failed (4 bytes).</li>
+ * </ul>
+ * Set system property <code>"sifter.shard.frame.max"</code> for max payload bytes of a
+ * batch accepted by a node, default 64MB.
+ * Batches are pipelined, a router keeps sending while earlier batches wait for acks.
+ * @author Chengwei.Yan
+ */
+final class ShardFrames {
+
+	static final byte BATCH = 1;
+	static final byte ACK = 2;
+	/** Length of a batch header. */
+	static final int BATCH_HEADER = 17;
+	/** Length of an ack. */
+	static final int ACK_LENGTH = 21;
+	/** Max payload bytes of a batch. */
+	static final int MAX_PAYLOAD = Integer.getInteger("sifter.shard.frame.max", 64 << 20);
+
+	private ShardFrames() {
+	}
+
+	/**
+	 * Encode a batch frame.
+	 * @param seq Sequence of the batch.
+	 * @param records Encoded targets.
+	 * @param bytes Total bytes of targets.
+	 */
+	static ByteBuffer batch(long seq, List<byte[]> records, int bytes) {
+		final int payload = bytes + 4 * records.size();
+		final ByteBuffer buf = ByteBuffer.allocate(BATCH_HEADER + payload);
+		buf.put(BATCH).putLong(seq).putInt(payload).putInt(records.size());
+		for (byte[] r : records) {
+			buf.putInt(r.length).put(r);
+		}
+		((Buffer) buf).flip();
+		return buf;
+	}
+
+	/**
+	 * Encode an ack frame.
+	 * @param failed Targets failed to be sifted, such as not journaled.
+	 */
+	static ByteBuffer ack(long seq, int sifted, int ungraded, int failed) {
+		final ByteBuffer buf = ByteBuffer.allocate(ACK_LENGTH);
+		buf.put(ACK).putLong(seq).putInt(sifted).putInt(ungraded).putInt(failed);
+		((Buffer) buf).flip();
+		return buf;
+	}
+
+	/**
+	 * Obtains a payload length read from a batch header.
+	 * @throws IOException if negative or over the max payload.
+	 */
+	static int payload(int length) throws IOException {
+		if (length < 0 || length > MAX_PAYLOAD) {
+			throw new IOException("Invalid payload length " + length + ".");
+		}
+		return length;
+	}
+
+	/**
+	 * Read until the buffer is full.
+	 * @return false if the channel is closed before any byte.
+	 * @throws EOFException if the channel is closed in the middle of a frame.
+	 */
+	static boolean readFully(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+		final int start = buf.position();
+		while (buf.hasRemaining()) {
+			if (ch.read(buf) < 0) {
+				if (buf.position() == start) {
+					return false;
+				}
+				throw new EOFException("Truncated frame.");
+			}
+		}
+		((Buffer) buf).flip();
+		return true;
+	}
+
+	/**
+	 * Write the whole buffer.
+	 */
+	static void writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+	}
+}
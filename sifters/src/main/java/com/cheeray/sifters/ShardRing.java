@@ -0,0 +1,98 @@
+package com.cheeray.sifters;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent hash ring of sifter nodes. Each node is placed at a number of
+ * virtual points, so a membership change only moves the grade keys between the changed
+ * node and its neighbours.
+ * @author Chengwei.Yan
+ */
+final class ShardRing {
+
+	/** Points of the ring, keyed by hash. */
+	private final TreeMap<Long, InetSocketAddress> points;
+	/** Member nodes. */
+	private final Set<InetSocketAddress> nodes;
+	/** Virtual points of a node. */
+	private final int replicas;
+
+	/**
+	 * Constructor
+	 * @param nodes Member nodes.
+	 * @param replicas Virtual points of a node.
+	 */
+	ShardRing(Collection<InetSocketAddress> nodes, int replicas) {
+		if (replicas <= 0)
+			throw new IllegalArgumentException("Replicas must be positive.");
+		this.replicas = replicas;
+		this.nodes = Collections.unmodifiableSet(new LinkedHashSet<>(nodes));
+		this.points = new TreeMap<>();
+		for (InetSocketAddress n : this.nodes) {
+			for (int i = 0; i < replicas; i++) {
+				points.put(hash(n.getHostString() + ":" + n.getPort() + "#" + i), n);
+			}
+		}
+	}
+
+	/**
+	 * Hash of a virtual point.
+	 */
+	private static long hash(String point) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("MD5");
+			return ByteBuffer.wrap(md.digest(point.getBytes(StandardCharsets.UTF_8)))
+					.getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 not supported.", e);
+		}
+	}
+
+	/**
+	 * Obtains the node owning a grade key, the first point clockwise from the key.
+	 * @param key Grade key.
+	 * @return the node, or null if no member.
+	 */
+	InetSocketAddress node(GradeKey key) {
+		if (points.isEmpty()) {
+			return null;
+		}
+		final Map.Entry<Long, InetSocketAddress> e = points.ceilingEntry(key.getHi());
+		return e != null ? e.getValue() : points.firstEntry().getValue();
+	}
+
+	/**
+	 * A new ring with a node joined.
+	 */
+	ShardRing with(InetSocketAddress node) {
+		final Set<InetSocketAddress> ns = new LinkedHashSet<>(nodes);
+		ns.add(node);
+		return new ShardRing(ns, replicas);
+	}
+
+	/**
+	 * A new ring with a node left.
+	 */
+	ShardRing without(InetSocketAddress node) {
+		final Set<InetSocketAddress> ns = new LinkedHashSet<>(nodes);
+		ns.remove(node);
+		return new ShardRing(ns, replicas);
+	}
+
+	/**
+	 * Obtains member nodes.
+	 */
+	Set<InetSocketAddress> getNodes() {
+		return nodes;
+	}
+}
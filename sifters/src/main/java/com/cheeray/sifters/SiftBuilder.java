@@ -1,11 +1,12 @@
 package com.cheeray.sifters;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -21,11 +22,25 @@ import java.util.function.Function;
  */
 public final class SiftBuilder {
 
+	/** Sequence of default sifter names. */
+	private static final AtomicInteger SEQ = new AtomicInteger();
+
 	private final int initialBuckets;
 	private final float loadFactor;
 	private final int concurrencyLevel;
-	private final Map<UUID, GradingConfig> grades = new HashMap<>();
+	private final Map<GradeKey, GradingConfig> grades = new HashMap<>();
 	private GradingConfig autoGrading = null;
+	private Spill<?> spill = null;
+	private Journal<?> journal = null;
+	private String name = null;
+	private SifterRuntime runtime = null;
+	private int maxFlips = Integer.MAX_VALUE;
+	private long maxFlipBytes = Long.MAX_VALUE;
+	private int stripes = 1;
+	private boolean indexed = false;
+	private FlipPolicy policy = null;
+	private int ring = 0;
+	private int subBuckets = 1;
 
 	/**
 	 * Constructor
@@ -55,6 +70,19 @@ public final class SiftBuilder {
 		return this;
 	}
 
+	/**
+	 * Is auto grading allowed, each bucket flips once it is over max entries or estimated
+	 * bytes before the delay.
+	 * @param maxEntries Max entries of a bucket.
+	 * @param maxBytes Max estimated bytes of a bucket, see
+	 * {@link Gradable#getEstimatedSize()}.
+	 */
+	public SiftBuilder autoGrading(long delay, TimeUnit unit, long maxEntries,
+			long maxBytes) {
+		this.autoGrading = new GradingConfig(delay, unit, maxEntries, maxBytes);
+		return this;
+	}
+
 	/**
 	 * Grading on given grades. Default delay 1 second if system property
 	 * "sifter.collect.delay" was not set.
@@ -69,15 +97,218 @@ public final class SiftBuilder {
 	}
 
 	/**
-	 * Grading with given capacity.
+	 * Grading with given delay.
 	 * 
 	 */
 	public SiftBuilder grading(long delay, TimeUnit unit, Grade<?>... gs)
 			throws IOException {
-		grades.put(Grade.toUUID(gs), new GradingConfig(delay, unit, gs));
+		grades.put(GradeKey.of(gs), new GradingConfig(delay, unit, gs));
+		return this;
+	}
+
+	/**
+	 * Grading with given capacity, the bucket flips once it is over max entries or
+	 * estimated bytes before the delay, new arrivals go to a fresh bucket.
+	 * @param maxEntries Max entries of the bucket.
+	 * @param maxBytes Max estimated bytes of the bucket, <code>Long.MAX_VALUE</code> for
+	 * unlimited, see {@link Gradable#getEstimatedSize()}.
+	 * @param gs Grades are allowed.
+	 */
+	public SiftBuilder grading(long delay, TimeUnit unit, long maxEntries, long maxBytes,
+			Grade<?>... gs) throws IOException {
+		grades.put(GradeKey.of(gs),
+				new GradingConfig(delay, unit, maxEntries, maxBytes, gs));
+		return this;
+	}
+
+	/**
+	 * Name of the sifter, its metrics are registered as management bean
+	 * <code>com.cheeray.sifters:type=Sifter,name=&lt;name&gt;</code>. Default
+	 * <code>"sifter-&lt;n&gt;"</code>.
+	 * @param name Name of the sifter.
+	 */
+	public SiftBuilder name(String name) {
+		this.name = name;
+		return this;
+	}
+
+	/**
+	 * Run the sifter in a shared runtime, default {@link SifterRuntime#getDefault()}.
+	 * @param runtime Runtime of schedulers and flips.
+	 */
+	public SiftBuilder runtime(SifterRuntime runtime) {
+		this.runtime = runtime;
+		return this;
+	}
+
+	/**
+	 * Limit flips in flight, a flip of asynchronous collectors is in flight until all of
+	 * its stages complete. Once exhausted, due buckets are deferred and producers wait.
+	 * Without a limit, a sifter publishing flips to a {@link FlipPublisher} is limited by
+	 * system property <code>"sifter.publish.inflight"</code>, default 64 flips.
+	 * @param maxFlips Max flips in flight.
+	 * @param maxBytes Max estimated bytes of flips in flight, see
+	 * {@link Gradable#getEstimatedSize()}.
+	 */
+	public SiftBuilder inFlight(int maxFlips, long maxBytes) {
+		if (maxFlips <= 0 || maxBytes <= 0)
+			throw new IllegalArgumentException("Limits must be positive.");
+		this.maxFlips = maxFlips;
+		this.maxFlipBytes = maxBytes;
+		return this;
+	}
+
+	/**
+	 * Partition grade keys into independent stripes, each of its own buckets and flip
+	 * deadlines. Stripes tick in parallel and submit their due flips to the flip pool, so
+	 * producers of many grade keys spread over separate bucket maps. Default 1.
+	 * @param stripes Number of stripes, rounded up to a power of two.
+	 */
+	public SiftBuilder stripes(int stripes) {
+		if (stripes <= 0)
+			throw new IllegalArgumentException("Stripes must be positive.");
+		this.stripes = stripes;
+		return this;
+	}
+
+	/**
+	 * Index keys of targets to their buckets, so the latest unflipped target of a key is
+	 * looked up by {@link Sifter#peek(Object)} at the cost of an index update per target.
+	 */
+	public SiftBuilder indexed() {
+		this.indexed = true;
+		return this;
+	}
+
+	/**
+	 * Spill targets to memory-mapped segment files instead of blocking producers while
+	 * memory is short, spilled targets are streamed back to collectors at flip time. Each
+	 * segment maps its whole size, default 64MB, until garbage collected after deleted.
+	 * Not supported by incremental reduce.
+	 * @param dir Directory of segment files.
+	 * @param codec Codec of targets.
+	 */
+	public <D> SiftBuilder spill(Path dir, Codec<D> codec) throws IOException {
+		if (dir == null || codec == null)
+			throw new IllegalArgumentException("Missing directory or codec.");
+		this.spill = new Spill<>(dir, codec);
+		return this;
+	}
+
+	/**
+	 * Journal targets to memory-mapped segment files before sifted, targets left by a
+	 * previous run in the directory are replayed once the sifter is created. Appends are
+	 * flushed by a periodic group commit, so a crash may lose the last commit period.
+	 * <p>
+	 * Each segment file is created and mapped at its full size, 64MB by default, see
+	 * property <code>"sifter.journal.segment.bytes"</code>. A segment stays on disk and
+	 * mapped until every epoch holding its targets is collected, and its mapping until
+	 * garbage collected, so buckets flipping slowly hold many segments of disk and
+	 * address space. A smaller segment size bounds them closer at the cost of more
+	 * frequent rolls.
+	 * </p>
+	 * @param dir Directory of segment files, owned by a single sifter.
+	 * @param codec Codec of targets.
+	 */
+	public <D> SiftBuilder journal(Path dir, Codec<D> codec) throws IOException {
+		if (dir == null || codec == null)
+			throw new IllegalArgumentException("Missing directory or codec.");
+		this.journal = new Journal<>(dir, codec);
+		return this;
+	}
+
+	/**
+	 * Ingest through a pre-allocated ring per stripe instead of sifting on producer
+	 * threads. Producers claim slots of the ring of the target's stripe, a batch by a
+	 * single claim, and a consumer thread per stripe applies targets as the only writer of
+	 * its buckets, so hot grade keys are not contended by producers. Producers wait while a
+	 * ring is full instead of on memory throttle. Targets are journaled by consumers, a
+	 * target failed to be journaled is retried by its consumer, holding up its ring.
+	 * @param capacity Slots of each ring, rounded up to a power of two.
+	 * @see #stripes(int)
+	 */
+	public SiftBuilder ring(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.ring = capacity;
+		return this;
+	}
+
+	/**
+	 * Adapt the flip delay of each bucket at runtime by its arrival rate and collect
+	 * time, within the bounds of the policy, starting from the delay of its grading. Hot
+	 * buckets flip at about the target batch size, and cold ones back off to the max delay
+	 * instead of flipping nearly empty.
+	 * @param policy Adaptive flip policy, see {@link FlipPolicy#adaptive}.
+	 */
+	public SiftBuilder adaptive(FlipPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("Missing flip policy.");
+		this.policy = policy;
+		return this;
+	}
+
+	/**
+	 * Split each bucket into sub-buckets by writer thread, so writers of hot grades do not
+	 * contend on a single map. Each sub-bucket resolves versions locally, and sub-buckets
+	 * are merged by key and version in parallel at flip time. Not applied to incremental
+	 * reduce or spill.
+	 * @param subBuckets Number of sub-buckets, rounded up to a power of two.
+	 */
+	public SiftBuilder subBuckets(int subBuckets) {
+		if (subBuckets <= 0)
+			throw new IllegalArgumentException("Sub-buckets must be positive.");
+		this.subBuckets = subBuckets;
 		return this;
 	}
 
+	/**
+	 * Split each bucket into sub-buckets once its writers contend, see
+	 * {@link #subBuckets(int)}. Each flip doubles sub-buckets of a contended bucket up to
+	 * the number of processors, and halves them once writers no longer contend.
+	 */
+	public SiftBuilder subBuckets() {
+		this.subBuckets = 0;
+		return this;
+	}
+
+	/**
+	 * Apply the adaptive flip policy and sub-buckets if any.
+	 */
+	private GradingConfig adapt(GradingConfig cfg) {
+		if (cfg == null) {
+			return null;
+		}
+		final GradingConfig c = policy != null ? cfg.adaptive(policy) : cfg;
+		return subBuckets != 1 ? c.subBuckets(subBuckets) : c;
+	}
+
+	/**
+	 * Create a sifter with the spill and journal configuration, registered for management.
+	 */
+	@SuppressWarnings("unchecked")
+	private <K, D extends Gradable<K>> Sifter<K, D> create() {
+		final Sifter<K, D> sifter = new Sifter<>(initialBuckets, loadFactor,
+				concurrencyLevel, adapt(autoGrading),
+				runtime != null ? runtime : SifterRuntime.getDefault(), stripes);
+		if (spill != null) {
+			sifter.spill((Spill<D>) spill);
+		}
+		if (journal != null) {
+			sifter.journal((Journal<D>) journal);
+		}
+		if (indexed) {
+			sifter.index();
+		}
+		sifter.limit(maxFlips, maxFlipBytes);
+		final String n = name != null ? name : "sifter-" + SEQ.incrementAndGet();
+		if (ring > 0) {
+			sifter.ring(ring, n);
+		}
+		sifter.register(n);
+		return sifter;
+	}
+
 	/**
 	 * Collect sift results.
 	 * @return a sifter.
@@ -86,13 +317,7 @@ public final class SiftBuilder {
 			TimeUnit unit, BiConsumer<K, D> action) {
 		if (action == null)
 			throw new IllegalArgumentException("Missing action.");
-		final Sifter<K, D> sifter = new Sifter<>(initialBuckets, loadFactor,
-				concurrencyLevel, autoGrading);
-		grades.forEach((k, c) -> {
-			sifter.grading(k, c);
-		});
-		sifter.collect(initialDelay, delay, unit, action);
-		return sifter;
+		return collect(initialDelay, delay, unit, new Fanout<K, D>().sink(action));
 	}
 
 	/**
@@ -101,15 +326,84 @@ public final class SiftBuilder {
 	public <K, D extends Gradable<K>, R> Sifter<K, D> reduce(long initialDelay,
 			long delay, TimeUnit unit, Function<D, R> transformer,
 			BinaryOperator<R> combiner, final BiConsumer<R, Collection<D>> consumer) {
-		if (transformer == null || combiner == null || consumer == null)
-			throw new IllegalArgumentException(
-					"Missing transformer, combiner or consumer.");
-		final Sifter<K, D> sifter = new Sifter<>(initialBuckets, loadFactor,
-				concurrencyLevel, autoGrading);
+		return collect(initialDelay, delay, unit,
+				new Fanout<K, D>().reduce(transformer, combiner, consumer));
+	}
+
+	/**
+	 * Reduce and consume sift results over a sliding window, buckets should be graded to
+	 * flip every slide of the window.
+	 * @see Fanout#window(Window, Function, BinaryOperator, BiConsumer)
+	 */
+	public <K, D extends Gradable<K>, R> Sifter<K, D> reduce(long initialDelay,
+			long delay, TimeUnit unit, Window window, Function<D, R> transformer,
+			BinaryOperator<R> combiner, final BiConsumer<R, Collection<D>> consumer) {
+		return collect(initialDelay, delay, unit,
+				new Fanout<K, D>().window(window, transformer, combiner, consumer));
+	}
+
+	/**
+	 * Reduce and consume sift results incrementally, each bucket keeps a running result
+	 * updated as targets arrive or are replaced by newer versions, so a flip simply hands
+	 * the result over.
+	 */
+	public <K, D extends Gradable<K>, R> Sifter<K, D> reduce(long initialDelay,
+			long delay, TimeUnit unit, Accumulator<? super D, R> accumulator,
+			final BiConsumer<R, Collection<D>> consumer) {
+		return collect(initialDelay, delay, unit,
+				new Fanout<K, D>().accumulate(accumulator, consumer));
+	}
+
+	/**
+	 * Reduce sift results of the finest grades and roll up over each coarser prefix of
+	 * grade levels.
+	 * @see Fanout#rollup(Function, BinaryOperator, BiConsumer)
+	 */
+	public <K, D extends Gradable<K>, R> Sifter<K, D> rollup(long initialDelay,
+			long delay, TimeUnit unit, Function<D, R> transformer,
+			BinaryOperator<R> combiner, BiConsumer<GradeKey, R> consumer) {
+		return collect(initialDelay, delay, unit,
+				new Fanout<K, D>().rollup(transformer, combiner, consumer));
+	}
+
+	/**
+	 * Summarize sift results by a sketch of fixed memory per bucket, targets are not kept.
+	 * @param sketch Sketch of targets, see {@link Sketches}.
+	 * @param consumer Consume the summary of a bucket on each flip.
+	 */
+	public <K, D extends Gradable<K>, R> Sifter<K, D> summarize(long initialDelay,
+			long delay, TimeUnit unit, Sketch<? super D, R> sketch,
+			BiConsumer<GradeKey, R> consumer) {
+		return collect(initialDelay, delay, unit,
+				new Fanout<K, D>().summarize(sketch, consumer));
+	}
+
+	/**
+	 * Collect sift results by several collectors, each flip of a bucket feeds all of them
+	 * in one traversal.
+	 * @param fanout Sinks and reducers.
+	 * @return a sifter.
+	 */
+	public <K, D extends Gradable<K>> Sifter<K, D> collect(long initialDelay, long delay,
+			TimeUnit unit, Fanout<K, D> fanout) {
+		if (fanout == null || fanout.isEmpty())
+			throw new IllegalArgumentException("Missing collectors.");
+		fanout.validate();
+		if (spill != null && fanout.getAccumulator() != null)
+			throw new IllegalStateException(
+					"Spill is not supported by incremental reduce.");
+		final Sifter<K, D> sifter = create();
+		if (fanout.isPublishing() && maxFlips == Integer.MAX_VALUE
+				&& maxFlipBytes == Long.MAX_VALUE) {
+			// Results waiting for demand are bounded by flips in flight ...
+			sifter.limit(Integer.getInteger("sifter.publish.inflight", 64), Long.MAX_VALUE);
+		}
+		// Buckets are created with the accumulator ...
+		sifter.collect(initialDelay, delay, unit, fanout);
 		grades.forEach((k, c) -> {
-			sifter.grading(k, c);
+			sifter.grading(k, adapt(c));
 		});
-		sifter.collect(initialDelay, delay, unit, transformer, combiner, consumer);
+		sifter.recover();
 		return sifter;
 	}
-}
\ No newline at end of file
+}
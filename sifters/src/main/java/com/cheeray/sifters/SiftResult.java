@@ -0,0 +1,69 @@
+package com.cheeray.sifters;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of sifting a batch of targets.
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+public final class SiftResult<D> {
+
+	/** Number of targets sifted into buckets. */
+	private final int sifted;
+	/** Targets without any matched grading. */
+	private final List<D> ungraded;
+	/** Targets failed to be journaled. */
+	private final List<D> failed;
+
+	/**
+	 * Constructor
+	 */
+	SiftResult(int sifted, List<D> ungraded) {
+		this(sifted, ungraded, Collections.emptyList());
+	}
+
+	/**
+	 * Constructor
+	 */
+	SiftResult(int sifted, List<D> ungraded, List<D> failed) {
+		this.sifted = sifted;
+		this.ungraded = Collections.unmodifiableList(ungraded);
+		this.failed = Collections.unmodifiableList(failed);
+	}
+
+	/**
+	 * Obtains number of targets sifted into buckets.
+	 */
+	public int getSifted() {
+		return sifted;
+	}
+
+	/**
+	 * Obtains targets rejected as no matched grading is allowed.
+	 */
+	public List<D> getUngraded() {
+		return ungraded;
+	}
+
+	/**
+	 * Obtains targets not sifted as they failed to be journaled.
+	 */
+	public List<D> getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Are all targets sifted?
+	 */
+	public boolean isComplete() {
+		return ungraded.isEmpty() && failed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "Sifted " + sifted + ", ungraded " + ungraded.size() + ", failed "
+				+ failed.size();
+	}
+}
@@ -0,0 +1,232 @@
+package com.cheeray.sifters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-allocated ring of targets published by many producers and applied by a single
+ * consumer thread. Producers claim a run of slots by a single CAS, so a batch costs one
+ * claim, and wait while the ring is full. Each slot carries the sequence it is published
+ * at, the consumer takes slots in order of claims once published.
+ * <p>
+ * Targets the handler fails to apply are retried before the consumer moves on, so
+ * producers wait on the full ring meanwhile. Only on close are they dropped.
+ * </p>
+ * @param D Type of targets.
+ * @author Chengwei.Yan
+ */
+final class SiftRing<D> {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SiftRing.class);
+
+	/** Max targets applied at a time. */
+	private static final int MAX_BATCH = 256;
+	/** Nanoseconds to park a waiting producer or idle consumer. */
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	/** Nanoseconds to wait before retrying failed targets. */
+	private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	/** Bit of the claimed sequence once closed, no more claims. */
+	private static final long CLOSED = Long.MIN_VALUE;
+
+	/** Slots of targets. */
+	private final AtomicReferenceArray<D> slots;
+	/** Sequence published at each slot, -1 before the first lap. */
+	private final AtomicLongArray published;
+	private final int mask;
+	/** Next sequence to claim, with the closed bit. */
+	private final AtomicLong claimed;
+	/** Next sequence to consume. */
+	private volatile long consumed;
+	/** Applies a run of targets on the consumer thread, returning targets to retry. */
+	private final Function<List<D>, List<D>> handler;
+	/** The consumer thread. */
+	private final Thread consumer;
+	/** Is the consumer parked waiting for targets? */
+	private volatile boolean waiting;
+
+	/**
+	 * Constructor, the consumer is started.
+	 * @param capacity Slots of the ring, rounded up to a power of two.
+	 * @param handler Applies a run of targets, returning targets failed to apply.
+	 * @param name Name of the consumer thread.
+	 */
+	SiftRing(int capacity, Function<List<D>, List<D>> handler, String name) {
+		final int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+		this.mask = size - 1;
+		this.claimed = new AtomicLong();
+		this.handler = handler;
+		this.consumer = new Thread(this::consume, name);
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * Publish a target, waiting while the ring is full.
+	 */
+	void put(D d) {
+		final long seq = claim(1, Long.MAX_VALUE);
+		publish(seq, d);
+	}
+
+	/**
+	 * Publish a target, waiting while the ring is full for a bounded time.
+	 * @param deadline Max time to wait in <code>System.nanoTime()</code>.
+	 * @return false if the ring stayed full and the target is not published.
+	 */
+	boolean offer(D d, long deadline) {
+		final long seq = claim(1, deadline);
+		if (seq < 0) {
+			return false;
+		}
+		publish(seq, d);
+		return true;
+	}
+
+	/**
+	 * Publish a batch of targets, claimed at once if it fits the ring.
+	 */
+	void putAll(Collection<? extends D> ds) {
+		final int size = mask + 1;
+		final List<D> run = new ArrayList<>(Math.min(ds.size(), size));
+		for (D d : ds) {
+			run.add(d);
+			if (run.size() == size) {
+				putRun(run);
+				run.clear();
+			}
+		}
+		if (!run.isEmpty()) {
+			putRun(run);
+		}
+	}
+
+	private void putRun(List<D> run) {
+		long seq = claim(run.size(), Long.MAX_VALUE);
+		for (D d : run) {
+			publish(seq++, d);
+		}
+	}
+
+	/**
+	 * Claim a run of sequences, waiting while the ring is full.
+	 * @return the first sequence, -1 if not claimed before the deadline.
+	 */
+	private long claim(int n, long deadline) {
+		for (;;) {
+			final long next = claimed.get();
+			if ((next & CLOSED) != 0) {
+				throw new IllegalStateException("Sifter is shutdown.");
+			}
+			if (next + n - consumed <= mask + 1) {
+				if (claimed.compareAndSet(next, next + n)) {
+					return next;
+				}
+			} else if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+				return -1;
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+	}
+
+	private void publish(long seq, D d) {
+		final int i = (int) seq & mask;
+		slots.lazySet(i, d);
+		published.set(i, seq);
+		if (waiting) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Apply published targets in order until closed and drained.
+	 */
+	private void consume() {
+		final List<D> run = new ArrayList<>(Math.min(MAX_BATCH, mask + 1));
+		long seq = consumed;
+		for (;;) {
+			while (run.size() < MAX_BATCH && published.get((int) seq & mask) == seq) {
+				final int i = (int) seq & mask;
+				run.add(slots.get(i));
+				slots.lazySet(i, null);
+				seq++;
+			}
+			if (!run.isEmpty()) {
+				apply(run);
+				run.clear();
+				consumed = seq;
+				continue;
+			}
+			if (claimed.get() == (seq | CLOSED)) {
+				return;
+			}
+			waiting = true;
+			if (published.get((int) seq & mask) != seq) {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+			waiting = false;
+		}
+	}
+
+	/**
+	 * Apply a run, retrying failed targets until applied or closed.
+	 */
+	private void apply(List<D> run) {
+		List<D> pending = run;
+		for (int attempt = 0;; attempt++) {
+			try {
+				pending = handler.apply(pending);
+			} catch (RuntimeException e) {
+				if (attempt == 0) {
+					LOG.error("Failed to apply " + pending.size() + " targets, retrying.", e);
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+			if ((claimed.get() & CLOSED) != 0) {
+				LOG.error("Dropped {} targets failed to apply on close.", pending.size());
+				return;
+			}
+			LockSupport.parkNanos(this, RETRY_NANOS);
+		}
+	}
+
+	/**
+	 * Is every published target applied?
+	 */
+	boolean isEmpty() {
+		return (claimed.get() & ~CLOSED) == consumed;
+	}
+
+	/**
+	 * Stop accepting and wait for the consumer to apply claimed targets.
+	 */
+	void close() {
+		long c;
+		do {
+			c = claimed.get();
+		} while ((c & CLOSED) == 0 && !claimed.compareAndSet(c, c | CLOSED));
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
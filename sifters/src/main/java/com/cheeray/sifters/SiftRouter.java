@@ -0,0 +1,327 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routing side of a sharded sifter. Each target is routed by the consistent hash of its
+ * grade key to one of the node sifters served by {@link SiftServer}, so buckets of a grade
+ * key live on a single node and nodes scale bucket memory and flips horizontally.
+ * <p>
+ * Targets are sent in batches, up to a window of batches per node are in flight waiting
+ * for acks. Partial batches are sent every linger period. Once a node joins or leaves,
+ * only the grade keys between it and its neighbours move, buckets left on the previous
+ * node are flipped by their own deadlines.
+ * </p>
+ * <p>
+ * Once a connection fails, targets not acknowledged yet are routed again to a new
+ * connection, or to the next owner once the node left. Targets failed to be sifted by a
+ * node, or lost without a connection on shutdown, are counted by {@link #getFailed()}.
+ * </p>
+ * <p>
+ * Set system property <code>"sifter.shard.batch"</code> for max targets of a batch,
+ * default 256. <code>"sifter.shard.window"</code> for max batches in flight per node,
+ * default 16. <code>"sifter.shard.linger.mills"</code> for the period of sending partial
+ * batches in milliseconds, default 5. And <code>"sifter.shard.replicas"</code> for
+ * virtual points of a node on the ring, default 64.
+ * </p>
+ * @param K Type of key of the target graded object.
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+public final class SiftRouter<K, D extends Gradable<K>> {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SiftRouter.class);
+
+	/** Codec of targets. */
+	private final Codec<D> codec;
+	/** Ring of member nodes. */
+	private volatile ShardRing ring;
+	/** Connections of nodes. */
+	private final ConcurrentHashMap<InetSocketAddress, ShardChannel> channels;
+	/** Max targets of a batch. */
+	private final int batchSize;
+	/** Max batches in flight per node. */
+	private final int window;
+	/** Targets routed. */
+	private final LongAdder routed;
+	/** Targets rejected by nodes as ungraded. */
+	private final LongAdder ungraded;
+	/** Targets failed to be sifted by nodes or lost. */
+	private final LongAdder failed;
+	/** Periodic sending of partial batches. */
+	private final ScheduledFuture<?> lingering;
+
+	/**
+	 * Constructor
+	 * @param codec Codec of targets.
+	 * @param nodes Member nodes.
+	 * @param runtime Runtime to send partial batches.
+	 */
+	SiftRouter(Codec<D> codec, Collection<InetSocketAddress> nodes,
+			SifterRuntime runtime) {
+		this.codec = codec;
+		this.ring = new ShardRing(nodes, Integer.getInteger("sifter.shard.replicas", 64));
+		this.channels = new ConcurrentHashMap<>();
+		this.batchSize = Integer.getInteger("sifter.shard.batch", 256);
+		this.window = Integer.getInteger("sifter.shard.window", 16);
+		this.routed = new LongAdder();
+		this.ungraded = new LongAdder();
+		this.failed = new LongAdder();
+		final long linger = Long.getLong("sifter.shard.linger.mills", 5);
+		this.lingering = runtime.getScheduler().scheduleWithFixedDelay(() -> {
+			runtime.getPool().execute(this::linger);
+		}, linger, linger, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Route a target to its node.
+	 * @param d A target.
+	 * @throws IOException if the node is not reachable.
+	 * @throws IllegalStateException if no node is a member.
+	 */
+	public void trySift(D d) throws IOException {
+		route(GradeKey.of(d.getGrades()), codec.encode(d));
+		routed.increment();
+	}
+
+	private void route(GradeKey key, byte[] bytes) throws IOException {
+		while (!channel(ring.node(key)).add(key, bytes)) {
+			// The node left or failed in the meantime, route again ...
+		}
+	}
+
+	/**
+	 * Route a batch of targets.
+	 * @param ds Targets.
+	 * @throws IOException if a node is not reachable.
+	 */
+	public void trySiftAll(Collection<? extends D> ds) throws IOException {
+		for (D d : ds) {
+			trySift(d);
+		}
+	}
+
+	/**
+	 * Obtains the connection of a node, connected on first use and reconnected once
+	 * failed. A connection to a node no longer a member is retired.
+	 */
+	private ShardChannel channel(InetSocketAddress node) throws IOException {
+		if (node == null) {
+			throw new IllegalStateException("No sifter node to route.");
+		}
+		final ShardChannel ex = channels.get(node);
+		if (ex != null && !ex.isFailed()) {
+			return ex;
+		}
+		final ShardChannel c = connect(node, ex);
+		if (!ring.getNodes().contains(node) && channels.remove(node, c)) {
+			// Connected by a target routed before the node left ...
+			retire(node, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Connect to a node unless connected, replacing a failed connection whose targets not
+	 * acknowledged are routed again.
+	 * @param stale The failed connection, null if not connected.
+	 * @throws IOException if not reachable, the failed connection is kept.
+	 */
+	private ShardChannel connect(InetSocketAddress node, ShardChannel stale)
+			throws IOException {
+		final ShardChannel c;
+		try {
+			c = channels.compute(node, (n, ex) -> {
+				if (ex != null && ex != stale) {
+					return ex;
+				}
+				try {
+					LOG.info("Routing to {}.", n);
+					return new ShardChannel(n, batchSize, window, ungraded, failed);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (stale != null) {
+			evict(node, stale);
+		}
+		return c;
+	}
+
+	/**
+	 * Close a connection and route its targets not acknowledged again.
+	 * @throws IOException if failed to route, the rest of targets are counted as failed.
+	 */
+	private void evict(InetSocketAddress node, ShardChannel c) throws IOException {
+		close(c);
+		final List<ShardChannel.Routed> rs = c.drain();
+		if (!rs.isEmpty()) {
+			LOG.warn("Routing again {} targets not acknowledged by {}.", rs.size(), node);
+		}
+		for (int i = 0; i < rs.size(); i++) {
+			try {
+				route(rs.get(i).key, rs.get(i).bytes);
+			} catch (IOException | RuntimeException e) {
+				failed.add(rs.size() - i);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * A node joins, grade keys between it and its neighbours are routed to it from now on.
+	 */
+	public synchronized void join(InetSocketAddress node) {
+		ring = ring.with(node);
+	}
+
+	/**
+	 * A node leaves, targets sent to it are acknowledged before disconnected.
+	 */
+	public synchronized void leave(InetSocketAddress node) {
+		ring = ring.without(node);
+		final ShardChannel c = channels.remove(node);
+		if (c != null) {
+			retire(node, c);
+		}
+	}
+
+	/**
+	 * Retire a connection of a node left, waiting for acks of targets sent to it. Targets
+	 * not acknowledged are routed to the next owner.
+	 */
+	private void retire(InetSocketAddress node, ShardChannel c) {
+		c.retire();
+		try {
+			c.flush();
+			c.acked().join();
+		} catch (Exception e) {
+			LOG.error("Failed to flush to leaving " + node, e);
+		}
+		try {
+			evict(node, c);
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Failed to route targets of leaving " + node, e);
+		}
+	}
+
+	/**
+	 * Send partial batches, reconnecting failed connections.
+	 */
+	private void linger() {
+		try {
+			send();
+		} catch (IOException e) {
+			LOG.error("Failed to send a partial batch.", e);
+		}
+	}
+
+	/**
+	 * Send partial batches to all nodes, failed connections are replaced first.
+	 * @return completions of batches sent so far.
+	 */
+	private List<CompletableFuture<Void>> send() throws IOException {
+		final List<CompletableFuture<Void>> acks = new ArrayList<>();
+		for (Map.Entry<InetSocketAddress, ShardChannel> e : channels.entrySet()) {
+			ShardChannel c = e.getValue();
+			if (c.isFailed()) {
+				c = connect(e.getKey(), c);
+			}
+			c.flush();
+			acks.add(c.acked());
+		}
+		return acks;
+	}
+
+	/**
+	 * Send partial batches to all nodes.
+	 * @return completion once all batches sent so far are acknowledged, completed
+	 *         exceptionally if a connection failed in the meantime.
+	 */
+	public CompletableFuture<Void> flush() throws IOException {
+		return CompletableFuture.allOf(send().toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Obtains member nodes.
+	 */
+	public Collection<InetSocketAddress> getNodes() {
+		return ring.getNodes();
+	}
+
+	/**
+	 * Obtains number of targets routed.
+	 */
+	public long getRouted() {
+		return routed.sum();
+	}
+
+	/**
+	 * Obtains number of targets rejected by nodes as ungraded.
+	 */
+	public long getUngraded() {
+		return ungraded.sum();
+	}
+
+	/**
+	 * Obtains number of targets failed to be sifted by nodes, such as not journaled, or
+	 * lost without a reachable node.
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	private void close(ShardChannel c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to close channel.", e);
+		}
+	}
+
+	/**
+	 * Gracefully shutdown, waiting for acks of all targets routed. Targets of a failed
+	 * connection are routed once more, those still not acknowledged are counted as failed.
+	 */
+	public void shutdown() {
+		lingering.cancel(false);
+		for (int attempt = 0;; attempt++) {
+			try {
+				flush().join();
+				break;
+			} catch (Exception e) {
+				if (attempt > 0) {
+					LOG.error("Unsuccessfull shutdown.", e);
+					break;
+				}
+			}
+		}
+		int lost = 0;
+		for (ShardChannel c : channels.values()) {
+			lost += c.getUnacked();
+		}
+		if (lost > 0) {
+			failed.add(lost);
+			LOG.error("Lost {} targets not acknowledged by nodes.", lost);
+		}
+		channels.values().forEach(this::close);
+		channels.clear();
+	}
+}
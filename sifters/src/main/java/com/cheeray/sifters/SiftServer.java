@@ -0,0 +1,168 @@
+package com.cheeray.sifters;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node side of a sharded sifter, accepting batches of routed targets into a local sifter.
+ * Each router connection is served by its own thread, batches are sifted in order and
+ * acknowledged once sifted, with the counts of targets ungraded or failed to be sifted.
+ * @param K Type of key of the target graded object.
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ * @see SiftRouter
+ */
+public final class SiftServer<K, D extends Gradable<K>> implements Closeable {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SiftServer.class);
+
+	/** Local sifter. */
+	private final Sifter<K, D> sifter;
+	/** Codec of targets. */
+	private final Codec<D> codec;
+	/** Listening channel. */
+	private final ServerSocketChannel server;
+	/** Connected routers. */
+	private final Set<SocketChannel> routers;
+	/** Is the server closed? */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor
+	 * @param sifter Local sifter.
+	 * @param codec Codec of targets.
+	 * @param bind Address to listen, port 0 for an ephemeral port.
+	 */
+	SiftServer(Sifter<K, D> sifter, Codec<D> codec, InetSocketAddress bind)
+			throws IOException {
+		this.sifter = sifter;
+		this.codec = codec;
+		this.routers = ConcurrentHashMap.newKeySet();
+		this.server = ServerSocketChannel.open();
+		this.server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		this.server.bind(bind);
+		final Thread t = new Thread(this::accept, "sifter-server-" + getAddress().getPort());
+		t.setDaemon(true);
+		t.start();
+		LOG.info("Serving sifter on {}.", getAddress());
+	}
+
+	/**
+	 * Obtains the listening address.
+	 */
+	public InetSocketAddress getAddress() {
+		try {
+			return (InetSocketAddress) server.getLocalAddress();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Accept routers until closed.
+	 */
+	private void accept() {
+		while (!closed) {
+			try {
+				final SocketChannel ch = server.accept();
+				ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				routers.add(ch);
+				final Thread t = new Thread(() -> serve(ch),
+						"sifter-server-" + ch.getRemoteAddress());
+				t.setDaemon(true);
+				t.start();
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				LOG.error("Failed to accept router.", e);
+			}
+		}
+	}
+
+	/**
+	 * Serve batches of a router until it disconnects.
+	 */
+	private void serve(SocketChannel ch) {
+		final ByteBuffer header = ByteBuffer.allocate(ShardFrames.BATCH_HEADER);
+		try {
+			for (;;) {
+				((Buffer) header).clear();
+				if (!ShardFrames.readFully(ch, header)) {
+					break;
+				}
+				if (header.get() != ShardFrames.BATCH) {
+					throw new IOException("Unknown frame.");
+				}
+				final long seq = header.getLong();
+				final ByteBuffer payload = ByteBuffer
+						.allocate(ShardFrames.payload(header.getInt()));
+				final int count = header.getInt();
+				if (!ShardFrames.readFully(ch, payload)) {
+					throw new EOFException("Truncated batch " + seq + ".");
+				}
+				if (count < 0 || count > payload.remaining() / 4) {
+					throw new IOException("Invalid count " + count + " of batch " + seq + ".");
+				}
+				final List<D> ds = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					final int length = payload.getInt();
+					if (length < 0 || length > payload.remaining()) {
+						throw new IOException("Invalid target length of batch " + seq + ".");
+					}
+					final byte[] bytes = new byte[length];
+					payload.get(bytes);
+					ds.add(codec.decode(bytes));
+				}
+				final SiftResult<D> r = sifter.trySiftAll(ds);
+				if (!r.getUngraded().isEmpty()) {
+					LOG.warn("Dropped {} ungraded targets of batch {}.",
+							r.getUngraded().size(), seq);
+				}
+				if (!r.getFailed().isEmpty()) {
+					LOG.error("Failed to journal {} targets of batch {}.",
+							r.getFailed().size(), seq);
+				}
+				ShardFrames.writeFully(ch, ShardFrames.ack(seq, r.getSifted(),
+						r.getUngraded().size(), r.getFailed().size()));
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				LOG.error("Router disconnected.", e);
+			}
+		} finally {
+			routers.remove(ch);
+			try {
+				ch.close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close router channel.", e);
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting and disconnect routers, the local sifter is left running.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (SocketChannel ch : routers) {
+			ch.close();
+		}
+	}
+}
@@ -1,22 +1,42 @@
 package com.cheeray.sifters;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.BiConsumer;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,38 +60,102 @@ public class Sifter<K, D extends Gradable<K>> {
 		return new SiftBuilder(initialBuckets, loadFactor, concurrencyLevel);
 	}
 
-	/** Internal fork join pool. */
-	private static ForkJoinPool FJP = new ForkJoinPool(
-			Runtime.getRuntime().availableProcessors());
-	/** Map of buckets, keyed by UUID. */
-	private final ConcurrentHashMap<UUID, Bucket<K, D>> buckets;
-	/** Scheduler. */
-	private final ScheduledThreadPoolExecutor ex;
+	/**
+	 * Create a router sharding targets across sifter nodes by consistent hash of grade
+	 * keys.
+	 * @param codec Codec of targets.
+	 * @param nodes Addresses of sifter nodes, see {@link #serve(InetSocketAddress, Codec)}.
+	 */
+	public static <K, D extends Gradable<K>> SiftRouter<K, D> route(Codec<D> codec,
+			InetSocketAddress... nodes) {
+		return route(codec, SifterRuntime.getDefault(), nodes);
+	}
+
+	/**
+	 * Create a router sending partial batches in a shared runtime.
+	 * @see #route(Codec, InetSocketAddress...)
+	 */
+	public static <K, D extends Gradable<K>> SiftRouter<K, D> route(Codec<D> codec,
+			SifterRuntime runtime, InetSocketAddress... nodes) {
+		if (codec == null)
+			throw new IllegalArgumentException("Missing codec.");
+		return new SiftRouter<>(codec, Arrays.asList(nodes), runtime);
+	}
+
+	/** Partitions of grade keys, a power of two. */
+	private final Stripe<K, D>[] stripes;
+	/** Live view of buckets of all stripes. */
+	private final Collection<Bucket<K, D>> buckets;
+	/** Shared scheduler, flip pool and shutdown hook. */
+	private final SifterRuntime runtime;
 	/** Enable auto grading? */
 	private final GradingConfig autoGrading;
-	/** Is sinking in progress? */
-	private final AtomicBoolean sinking = new AtomicBoolean(false);
+	/** Number of flips in progress. */
+	private final AtomicInteger sinking = new AtomicInteger();
 	/** Any running schedule. */
 	private ScheduledFuture<?> schedule;
+	/** Collectors fed by each flip, null if not collecting yet. */
+	private Fanout<K, D> fanout;
+	/** Accumulator of running results of buckets, null if not incremental. */
+	private Accumulator<? super D, ?> accumulator;
+	/** Spill configuration, null if producers block on memory throttle. */
+	private Spill<D> spill;
+	/** Spill the largest buckets once memory throttle blocks, null if never spill. */
+	private Runnable spiller;
+	/** Write-ahead journal of targets, null if not durable. */
+	private Journal<D> journal;
+	/** Group commit of the journal. */
+	private ScheduledFuture<?> syncing;
+	/** Index of keys to buckets holding them, null if not indexed. */
+	private ConcurrentHashMap<K, Bucket<K, D>> index;
+	/** Limit of flips in flight. */
+	private FlipLimiter limiter = new FlipLimiter(Integer.MAX_VALUE, Long.MAX_VALUE);
+	/** Metrics of the sifter. */
+	private final SifterMetrics metrics;
+	/** Registered management name, null if not registered. */
+	private ObjectName name;
 	private Callable<Boolean> down;
 
 	/**
 	 * Constructor
+	 * @param stripes Partitions of grade keys, rounded up to a power of two.
 	 */
 	Sifter(int initialCapacity, float loadFactor, int concurrencyLevel,
-			GradingConfig autoGrading) {
-		this.buckets = new ConcurrentHashMap<>(initialCapacity, loadFactor,
-				concurrencyLevel);
-		this.ex = new ScheduledThreadPoolExecutor(
-				Runtime.getRuntime().availableProcessors());
-		this.ex.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			GradingConfig autoGrading, SifterRuntime runtime, int stripes) {
+		this.stripes = stripes(stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1);
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new Stripe<>(Math.max(1, initialCapacity / this.stripes.length),
+					loadFactor, Math.max(1, concurrencyLevel / this.stripes.length));
+		}
+		this.buckets = new AbstractCollection<Bucket<K, D>>() {
+
+			@Override
+			public Iterator<Bucket<K, D>> iterator() {
+				return Arrays.stream(Sifter.this.stripes)
+						.flatMap(s -> s.buckets.values().stream()).iterator();
+			}
+
+			@Override
+			public int size() {
+				int size = 0;
+				for (Stripe<K, D> s : Sifter.this.stripes) {
+					size += s.buckets.size();
+				}
+				return size;
+			}
+		};
+		this.runtime = runtime;
 		this.schedule = null;
 		this.autoGrading = autoGrading;
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			public void run() {
-				shutdown();
-			}
-		});
+		this.metrics = new SifterMetrics(buckets);
+		runtime.attach(this);
+	}
+
+	@SuppressWarnings({
+			"unchecked", "rawtypes"
+	})
+	private static <K, D extends Gradable<K>> Stripe<K, D>[] stripes(int n) {
+		return new Stripe[n];
 	}
 
 	/**
@@ -80,161 +164,756 @@ public class Sifter<K, D extends Gradable<K>> {
 	 * @param cfg The grading configuration.
 	 * @return a bucket to hold the sift results.
 	 */
-	Bucket<K, D> grading(UUID key, GradingConfig cfg) {
-		return grading(key, cfg.getDelay(), cfg.getUnit(), cfg.getGrades());
+	Bucket<K, D> grading(GradeKey key, GradingConfig cfg) {
+		final Stripe<K, D> s = stripe(key);
+		return s.buckets.computeIfAbsent(key, k -> {
+			LOG.info("{} is grading on {}.", k, Arrays.toString(k.getGrades()));
+			final Bucket<K, D> b = new Bucket<>(k, cfg, accumulator, spill, journal);
+			s.deadlines.add(new Deadline<>(b, b.getDeadline()));
+			return b;
+		});
 	}
 
 	/**
-	 * Grading on given grades.
-	 * @param key Bucket key.
-	 * @param delay The delay before collect.
-	 * @param unit The time unit of delay.
-	 * @param grades Grades allowed to be collected.
-	 * @return a bucket to hold the sift results.
+	 * Obtains the stripe of a grade key.
 	 */
-	Bucket<K, D> grading(UUID key, long delay, TimeUnit unit, Grade<?>... grades) {
-		LOG.info("{} is grading on {}.", key, Arrays.toString(grades));
-		final Bucket<K, D> newBucket = new Bucket<>(key, delay, unit);
-		return buckets.merge(key, newBucket, (a, b) -> {
-			a.merge(b);
-			return a;
+	private Stripe<K, D> stripe(GradeKey key) {
+		return stripes[(int) key.getHi() & (stripes.length - 1)];
+	}
+
+	/**
+	 * Limit flips in flight, new flips are deferred and producers wait once exhausted.
+	 * Must be called before collecting.
+	 * @param maxFlips Max flips in flight.
+	 * @param maxBytes Max estimated bytes of flips in flight.
+	 */
+	void limit(int maxFlips, long maxBytes) {
+		this.limiter = new FlipLimiter(maxFlips, maxBytes);
+	}
+
+	/**
+	 * Ingest through a ring per stripe, each applied by its own consumer thread as the
+	 * single writer of buckets of the stripe. Producers wait while a ring is full instead
+	 * of on memory throttle. A target is published with its grade key resolved by the
+	 * producer. Must be called before sifting.
+	 * @param capacity Slots of each ring.
+	 * @param name Name of the sifter.
+	 */
+	void ring(int capacity, String name) {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i].ring = new SiftRing<>(capacity, this::apply,
+					name + "-ring-" + i);
+		}
+	}
+
+	/**
+	 * Apply a run of targets taken from a ring.
+	 * @return targets failed to be journaled, to be retried.
+	 */
+	private List<Map.Entry<GradeKey, D>> apply(List<Map.Entry<GradeKey, D>> run) {
+		final Map<GradeKey, List<D>> groups = new HashMap<>();
+		for (Map.Entry<GradeKey, D> e : run) {
+			groups.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(e.getValue());
+		}
+		final SiftResult<D> r = siftAll(groups);
+		if (!r.getUngraded().isEmpty()) {
+			LOG.warn("Dropped {} targets of retired grades.", r.getUngraded().size());
+		}
+		if (r.getFailed().isEmpty()) {
+			return Collections.emptyList();
+		}
+		final Set<D> f = Collections.newSetFromMap(new IdentityHashMap<>());
+		f.addAll(r.getFailed());
+		final List<Map.Entry<GradeKey, D>> retry = new ArrayList<>(f.size());
+		for (Map.Entry<GradeKey, D> e : run) {
+			if (f.contains(e.getValue())) {
+				retry.add(e);
+			}
+		}
+		return retry;
+	}
+
+	/**
+	 * Register the management bean of the sifter.
+	 * @param name Name of the sifter.
+	 */
+	void register(String name) {
+		try {
+			final ObjectName n = new ObjectName("com.cheeray.sifters:type=Sifter,name="
+					+ ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, n);
+			this.name = n;
+		} catch (JMException e) {
+			LOG.warn("Failed to register management bean of " + name, e);
+		}
+	}
+
+	/**
+	 * Obtains metrics of the sifter.
+	 */
+	public SifterMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Serve this sifter as a node of routers, close the server before shutdown.
+	 * @param bind Address to listen, port 0 for an ephemeral port.
+	 * @param codec Codec of targets.
+	 * @return the server.
+	 */
+	public SiftServer<K, D> serve(InetSocketAddress bind, Codec<D> codec)
+			throws IOException {
+		return new SiftServer<>(this, codec, bind);
+	}
+
+	/**
+	 * Index keys of targets to their buckets for {@link #peek(Object)}. Must be called
+	 * before any grading.
+	 */
+	void index() {
+		this.index = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Drop keys of a collected epoch from the index, unless sifted again into the bucket.
+	 */
+	private void unindex(Bucket<K, D> b, Epoch<K, D> e) {
+		if (index == null) {
+			return;
+		}
+		e.forEachKey(k -> {
+			if (index.remove(k, b) && b.peek(k) != null) {
+				// Arrived again during the flip ...
+				index.putIfAbsent(k, b);
+			}
 		});
 	}
 
+	/**
+	 * Look up the latest unflipped target of a key, from buckets held in heap. Weakly
+	 * consistent, a target being flipped or spilled is not seen.
+	 * @param key Key of a target.
+	 * @return the target, null if not sifted since its last flip.
+	 * @throws IllegalStateException if the sifter is not indexed, see
+	 * {@link SiftBuilder#indexed()}.
+	 */
+	public D peek(K key) {
+		if (index == null)
+			throw new IllegalStateException("Keys are not indexed.");
+		final Bucket<K, D> b = index.get(key);
+		return b == null ? null : b.peek(key);
+	}
+
+	/**
+	 * Query unflipped targets of buckets graded on all of the given grades, e.g. buckets
+	 * of A+B+C and A+B+D for grades A and B. Buckets and their targets are iterated
+	 * without locking, weakly consistent as sifting goes on.
+	 * @param grades Grades to match, none for all buckets.
+	 * @return a stream of targets.
+	 */
+	public Stream<D> query(Grade<?>... grades) {
+		final List<Grade<?>> gs = new ArrayList<>(grades.length);
+		for (Grade<?> g : grades) {
+			gs.add(Grade.intern(g));
+		}
+		return buckets.stream()
+				.filter(b -> Arrays.asList(b.getKey().getGrades()).containsAll(gs))
+				.flatMap(b -> b.values().stream());
+	}
+
+	/**
+	 * Spill targets to disk instead of blocking producers while memory is short. Must be
+	 * called before any grading.
+	 * @param spill Spill configuration.
+	 */
+	void spill(Spill<D> spill) {
+		this.spill = spill;
+		this.spiller = () -> {
+			runtime.getPool().execute(this::spillLargest);
+		};
+		MemPhaser.getInstance().addListener(spiller);
+	}
+
+	/**
+	 * Journal targets before sifted and commit the journal periodically. Must be called
+	 * before any grading.
+	 * @param journal The write-ahead journal.
+	 */
+	void journal(Journal<D> journal) {
+		this.journal = journal;
+		this.syncing = runtime.getScheduler().scheduleWithFixedDelay(journal::sync,
+				journal.getSyncMillis(), journal.getSyncMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Replay targets left in the journal by a previous run, segments are replayed in
+	 * parallel and a segment is deleted once its targets are collected.
+	 */
+	void recover() {
+		if (journal == null || journal.getRecovered().isEmpty()) {
+			return;
+		}
+		final List<JournalSegment> segs = journal.getRecovered();
+		final Codec<D> codec = journal.getCodec();
+		// Hold segments until replayed ...
+		segs.forEach(JournalSegment::retain);
+		final LongAdder replayed = new LongAdder();
+		runtime.getPool().submit(() -> segs.parallelStream().forEach(seg -> {
+			try {
+				seg.read(bytes -> {
+					final D d = codec.decode(bytes);
+					final GradeKey key = GradeKey.of(d.getGrades());
+					for (;;) {
+						Bucket<K, D> bucket = stripe(key).buckets.get(key);
+						if (bucket == null && autoGrading != null) {
+							bucket = grading(key, autoGrading);
+						}
+						if (bucket == null) {
+							LOG.warn("Dropped ungraded {} from journal.", d);
+							break;
+						}
+						if (bucket.recover(d, seg)) {
+							index(d, bucket);
+							replayed.increment();
+							break;
+						}
+					}
+				});
+			} catch (IOException e) {
+				LOG.error("Failed to replay journal segment " + seg.getSeq(), e);
+			}
+		})).join();
+		for (JournalSegment seg : segs) {
+			try {
+				seg.release();
+			} catch (IOException e) {
+				LOG.error("Failed to release journal segment " + seg.getSeq(), e);
+			}
+		}
+		segs.clear();
+		LOG.info("Replayed {} targets from journal.", replayed.sum());
+	}
+
+	/**
+	 * Spill the largest buckets until about half of targets in heap are spilled, or memory
+	 * is released.
+	 */
+	private void spillLargest() {
+		final List<Bucket<K, D>> bs = new ArrayList<>(buckets);
+		bs.sort(Comparator.comparingLong((Bucket<K, D> b) -> b.size()).reversed());
+		final long total = bs.stream().mapToLong(b -> b.size()).sum();
+		long spilled = 0;
+		for (Bucket<K, D> b : bs) {
+			if (spilled * 2 >= total || !MemPhaser.getInstance().isBlocking()) {
+				break;
+			}
+			final long n = b.size();
+			if (n < spill.getMinEntries()) {
+				break;
+			}
+			if (b.spill()) {
+				spilled += n;
+			}
+		}
+		if (spilled > 0) {
+			LOG.info("Spilled {} of {} targets.", spilled, total);
+		}
+	}
+
+	/**
+	 * Hand a full bucket to the collector for an immediate flip, new arrivals go to a
+	 * new epoch of the bucket.
+	 * @param b A full bucket.
+	 */
+	private void rotate(Bucket<K, D> b) {
+		if (fanout != null && !limiter.isSaturated() && b.startFlip()) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("{} is full, flip now.", b.getKey());
+			}
+			final Epoch<K, D> e = b.swap();
+			if (e != null) {
+				flip(b, e);
+			} else {
+				b.endFlip();
+			}
+		}
+	}
+
+	/**
+	 * Flip a claimed bucket to the collector.
+	 * @param b The bucket.
+	 * @param e The swapped out epoch, or null to flip the current one.
+	 * @return the flip task.
+	 */
+	private ForkJoinTask<?> flip(Bucket<K, D> b, Epoch<K, D> e) {
+		sinking.incrementAndGet();
+		limiter.acquire();
+		return runtime.getPool().submit(new FlipTask(b, e));
+	}
+
+	/**
+	 * An idle bucket is postponed, or retired if auto graded. Targets slipped in before
+	 * retirement are sifted again into a new bucket.
+	 * @param b A claimed empty bucket.
+	 */
+	private void idle(Bucket<K, D> b) {
+		try {
+			if (b.getConfig() == autoGrading && stripe(b.getKey()).buckets.remove(b.getKey(), b)) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("{} is idle, retired.", b.getKey());
+				}
+				final Epoch<K, D> e = b.retire();
+				metrics.retired(b);
+				if (e != null) {
+					if (!e.isEmpty()) {
+						e.seal();
+						for (D d : e.all()) {
+							sift(GradeKey.of(d.getGrades()), d);
+						}
+					}
+					b.release(e);
+				}
+			} else {
+				b.skip();
+			}
+		} catch (UngradedException | UncheckedIOException e) {
+			LOG.error("Failed to sift again from retired " + b.getKey(), e);
+		} finally {
+			b.endFlip();
+		}
+	}
+
 	/**
 	 * Try to sift a target.
 	 * @param d A target.
-	 * @throws IOException while failed to create UUID key for the bucket.
+	 * @throws IOException if the target cannot be journaled.
 	 * @throws UngradedException while grade is not available but auto grading is not
 	 * allowed.
-	 * @throws BucketFullException while bucket is full.
 	 */
 	public void trySift(D d) throws IOException, UngradedException {
-		MemPhaser.getInstance().await();
+		final GradeKey key = GradeKey.of(d.getGrades());
+		final SiftRing<Map.Entry<GradeKey, D>> ring = ring(key);
+		if (ring != null) {
+			limiter.await();
+			ring.put(new SimpleImmutableEntry<>(key, d));
+			return;
+		}
+		if (spill == null) {
+			MemPhaser.getInstance().await();
+		}
+		limiter.await();
+		try {
+			sift(key, d);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Try to sift a target, waiting on memory throttle and flips in flight for a bounded
+	 * time.
+	 * @param d A target.
+	 * @param timeout Max time to wait for free memory and flips.
+	 * @param unit Time unit of timeout.
+	 * @return false if memory or flips were not released in time and the target is not
+	 * sifted.
+	 * @throws IOException if the target cannot be journaled.
+	 * @throws UngradedException while grade is not available but auto grading is not
+	 * allowed.
+	 */
+	public boolean trySift(D d, long timeout, TimeUnit unit)
+			throws IOException, UngradedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		final GradeKey key = GradeKey.of(d.getGrades());
+		final SiftRing<Map.Entry<GradeKey, D>> ring = ring(key);
+		if (ring != null) {
+			return limiter.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+					&& ring.offer(new SimpleImmutableEntry<>(key, d), deadline);
+		}
+		if (spill == null && !MemPhaser.getInstance().tryAwait(timeout, unit)) {
+			return false;
+		}
+		if (!limiter.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+			return false;
+		}
+		try {
+			sift(key, d);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return true;
+	}
+
+	/**
+	 * Obtains the ring of the stripe of a grade key, null if sifted in place.
+	 * @throws UngradedException while grade is not available but auto grading is not
+	 * allowed.
+	 */
+	private SiftRing<Map.Entry<GradeKey, D>> ring(GradeKey key) throws UngradedException {
+		final Stripe<K, D> s = stripe(key);
+		if (s.ring == null) {
+			return null;
+		}
+		if (autoGrading == null && !s.buckets.containsKey(key)) {
+			metrics.ungraded(1);
+			throw new UngradedException();
+		}
+		return s.ring;
+	}
+
+	/**
+	 * Spill a bucket by its producer while memory throttle blocks.
+	 */
+	private void spill(Bucket<K, D> b) {
+		if (MemPhaser.getInstance().isBlocking() && b.size() >= spill.getMinEntries()) {
+			b.spill();
+		}
+	}
+
+	/**
+	 * Sift a target into the bucket of its grade key.
+	 */
+	private void sift(GradeKey key, D d) throws UngradedException {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Sift {}.", d);
 		}
-		final UUID key = Grade.toUUID(d.getGrades());
-		final Bucket<K, D> bucket = buckets.computeIfPresent(key, (k, b) -> {
-			b.tryAdd(d);
-			return b;
-		});
-		if (bucket == null) {
-			if (autoGrading != null) {
-				if (LOG.isDebugEnabled()) {
-					LOG.debug("Auto grading on {} every {} {}.", d,
-							autoGrading.getDelay(), autoGrading.getUnit());
+		for (;;) {
+			Bucket<K, D> bucket = stripe(key).buckets.get(key);
+			if (bucket == null) {
+				if (autoGrading != null) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Auto grading on {} every {} {}.", d,
+								autoGrading.getDelay(), autoGrading.getUnit());
+					}
+					bucket = grading(key, autoGrading);
+				} else {
+					metrics.ungraded(1);
+					throw new UngradedException();
 				}
-				final Bucket<K, D> b = grading(key, autoGrading.getDelay(),
-						autoGrading.getUnit(), d.getGrades());
-				b.tryAdd(d);
-			} else {
-				throw new UngradedException();
 			}
+			// Retry if the bucket was retired ...
+			if (bucket.tryAdd(d)) {
+				index(d, bucket);
+				if (bucket.isFull()) {
+					rotate(bucket);
+				} else if (spill != null) {
+					spill(bucket);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Index the key of a sifted target.
+	 */
+	private void index(D d, Bucket<K, D> b) {
+		if (index != null) {
+			index.put(d.getKey(), b);
 		}
 	}
 
+	/**
+	 * Try to sift a batch of targets, memory is checked once per batch and targets are
+	 * merged into buckets group by group.
+	 * @param ds Targets.
+	 * @return outcome of the batch, with targets rejected as ungraded or failed to be
+	 * journaled.
+	 */
+	public SiftResult<D> trySiftAll(Collection<? extends D> ds) {
+		return trySiftAll(ds.iterator());
+	}
+
+	/**
+	 * Try to sift a stream of targets as a batch.
+	 * @param ds Targets.
+	 * @return outcome of the batch, with targets rejected as ungraded.
+	 * @see #trySiftAll(Collection)
+	 */
+	public SiftResult<D> trySiftAll(Stream<? extends D> ds) {
+		return trySiftAll(ds.iterator());
+	}
+
+	/**
+	 * Try to sift targets of an iterator as a batch.
+	 * @param it Iterator of targets.
+	 * @return outcome of the batch, with targets rejected as ungraded.
+	 * @see #trySiftAll(Collection)
+	 */
+	public SiftResult<D> trySiftAll(Iterator<? extends D> it) {
+		if (stripes[0].ring != null) {
+			limiter.await();
+			return publishAll(it);
+		}
+		if (spill == null) {
+			MemPhaser.getInstance().await();
+		}
+		limiter.await();
+		return siftAll(it);
+	}
+
+	/**
+	 * Publish targets to rings of their stripes, a run per stripe.
+	 */
+	private SiftResult<D> publishAll(Iterator<? extends D> it) {
+		final Map<Stripe<K, D>, List<Map.Entry<GradeKey, D>>> runs = new HashMap<>();
+		final List<D> ungraded = new ArrayList<>();
+		int sifted = 0;
+		while (it.hasNext()) {
+			final D d = it.next();
+			final GradeKey key = GradeKey.of(d.getGrades());
+			final Stripe<K, D> s = stripe(key);
+			if (autoGrading == null && !s.buckets.containsKey(key)) {
+				ungraded.add(d);
+				continue;
+			}
+			runs.computeIfAbsent(s, k -> new ArrayList<>())
+					.add(new SimpleImmutableEntry<>(key, d));
+			sifted++;
+		}
+		if (!ungraded.isEmpty()) {
+			metrics.ungraded(ungraded.size());
+		}
+		runs.forEach((s, run) -> s.ring.putAll(run));
+		return new SiftResult<>(sifted, ungraded);
+	}
+
+	/**
+	 * Sift targets into buckets group by group.
+	 */
+	private SiftResult<D> siftAll(Iterator<? extends D> it) {
+		final Map<GradeKey, List<D>> groups = new HashMap<>();
+		while (it.hasNext()) {
+			final D d = it.next();
+			groups.computeIfAbsent(GradeKey.of(d.getGrades()), k -> new ArrayList<>())
+					.add(d);
+		}
+		return siftAll(groups);
+	}
+
+	/**
+	 * Sift groups of targets by grade key into their buckets.
+	 */
+	private SiftResult<D> siftAll(Map<GradeKey, List<D>> groups) {
+		int sifted = 0;
+		final List<D> ungraded = new ArrayList<>();
+		final List<D> failed = new ArrayList<>();
+		for (Map.Entry<GradeKey, List<D>> e : groups.entrySet()) {
+			final GradeKey key = e.getKey();
+			final List<D> group = e.getValue();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Sift {} targets into {}.", group.size(), key);
+			}
+			for (;;) {
+				Bucket<K, D> bucket = stripe(key).buckets.get(key);
+				if (bucket == null && autoGrading != null) {
+					bucket = grading(key, autoGrading);
+				}
+				if (bucket == null) {
+					metrics.ungraded(group.size());
+					ungraded.addAll(group);
+					break;
+				}
+				// Retry if the bucket was retired ...
+				final int before = failed.size();
+				if (bucket.tryAddAll(group, failed)) {
+					if (failed.size() > before) {
+						final Set<D> f = Collections.newSetFromMap(new IdentityHashMap<>());
+						f.addAll(failed.subList(before, failed.size()));
+						group.removeIf(f::contains);
+					}
+					if (index != null) {
+						for (D d : group) {
+							index.put(d.getKey(), bucket);
+						}
+					}
+					sifted += group.size();
+					if (bucket.isFull()) {
+						rotate(bucket);
+					} else if (spill != null) {
+						spill(bucket);
+					}
+					break;
+				}
+			}
+		}
+		return new SiftResult<>(sifted, ungraded, failed);
+	}
+
 	/**
 	 * Is sifter idle, which means buckets are eventually empty?
 	 */
 	public boolean isIdle() {
-		return !sinking.get() && buckets.isEmpty();
+		return sinking.get() == 0
+				&& Arrays.stream(stripes).allMatch(s -> s.ring == null || s.ring.isEmpty())
+				&& buckets.stream().allMatch(b -> b.isEmpty());
 	}
 
 	/**
 	 * Is sinking in progress?
 	 */
 	public boolean isSinking() {
-		return sinking.get();
+		return sinking.get() > 0;
 	}
 
 	/**
-	 * Collect each entry.
+	 * Schedule the collectors, which flip every due bucket. Each stripe is ticked by its
+	 * own task.
 	 */
-	<R> void collect(long initialDelay, long delay, TimeUnit unit,
-			BiConsumer<K, D> action) {
-		// TODO: support multiple collectors ...
-		if (this.schedule != null && !this.schedule.isDone()) {
-			throw new UnsupportedOperationException(
-					"Only one collector can be scheduled.");
-		}
-		this.schedule = ex.scheduleWithFixedDelay(new Runnable() {
+	private void schedule(long initialDelay, long delay, TimeUnit unit) {
+		this.schedule = runtime.getScheduler().scheduleWithFixedDelay(new Runnable() {
 
 			@Override
 			public void run() {
-				final List<ForkJoinTask<?>> tasks = buckets.entrySet().parallelStream()
-						.filter(e -> e.getValue().isFlippable()).map(e -> {
-							return FJP.submit(new SinkTask(e.getKey(), action));
-						}).collect(Collectors.toList());
-				sinking.set(!tasks.isEmpty());
-				tasks.forEach(t -> {
-					t.join();
-				});
-				sinking.set(false);
+				if (fanout.isRolling() || fanout.isWindowing()) {
+					// Roll up flips completed since the previous round and slide idle
+					// windows ...
+					try {
+						runtime.getPool().execute(() -> {
+							fanout.roll();
+							fanout.advance();
+						});
+					} catch (RejectedExecutionException e) {
+						return;
+					}
+				}
+				for (Stripe<K, D> s : stripes) {
+					// Previous tick is still running ...
+					if (!s.ticking.compareAndSet(false, true)) {
+						continue;
+					}
+					sinking.incrementAndGet();
+					try {
+						runtime.getPool().execute(() -> tick(s));
+					} catch (RejectedExecutionException e) {
+						s.ticking.set(false);
+						sinking.decrementAndGet();
+					}
+				}
 			}
 		}, initialDelay, delay, unit);
-		this.down = () -> {
-			buckets.forEachValue(Runtime.getRuntime().availableProcessors(), b -> {
-				b.sink(action, true);
+	}
+
+	/**
+	 * A collector tick of a stripe in the flip pool. Due buckets are submitted to the pool
+	 * a slice at a time to take turns with other sifters of the runtime, stripes tick in
+	 * parallel. Buckets due while the flips in flight are limited are retried on the next
+	 * tick.
+	 */
+	private void tick(Stripe<K, D> s) {
+		try {
+			final List<Deadline<K, D>> due = new ArrayList<>();
+			s.deadlines.drainTo(due);
+			final List<ForkJoinTask<?>> tasks = new ArrayList<>(runtime.getSlice());
+			for (Deadline<K, D> d : due) {
+				final Bucket<K, D> b = d.b;
+				if (s.buckets.get(b.getKey()) != b) {
+					// Retired ...
+					continue;
+				}
+				final long now = System.nanoTime();
+				if (b.getDeadline() > now) {
+					// Postponed by a flip since registered ...
+					s.deadlines.add(new Deadline<>(b, b.getDeadline()));
+					continue;
+				}
+				if (limiter.isSaturated()) {
+					// Retry on the next tick ...
+					s.deadlines.add(new Deadline<>(b, now));
+					continue;
+				}
+				// Check again once the flip resets the deadline ...
+				s.deadlines.add(new Deadline<>(b, now + b.getDelayNanos()));
+				if (!b.startFlip()) {
+					continue;
+				}
+				if (b.isEmpty()) {
+					idle(b);
+					continue;
+				}
+				tasks.add(flip(b, null));
+				if (tasks.size() >= runtime.getSlice()) {
+					tasks.forEach(ForkJoinTask::join);
+					tasks.clear();
+				}
+			}
+			tasks.forEach(ForkJoinTask::join);
+		} finally {
+			s.ticking.set(false);
+			sinking.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Flush every bucket on shutdown, counted as flips.
+	 */
+	private void flush(Consumer<Bucket<K, D>> f) {
+		for (Stripe<K, D> s : stripes) {
+			s.buckets.forEachValue(Runtime.getRuntime().availableProcessors(), b -> {
+				if (!b.isEmpty()) {
+					final long start = System.nanoTime();
+					f.accept(b);
+					metrics.flipped(System.nanoTime() - start);
+				}
 			});
-			buckets.clear();
-			return Boolean.TRUE;
-		};
+			s.buckets.values().forEach(metrics::retired);
+			s.buckets.clear();
+		}
 	}
 
 	/**
-	 * Collect and transform to a result and reduce.
+	 * Collect flips of buckets, each flip feeds all collectors in one traversal. Must be
+	 * called once and before any grading.
 	 *
 	 * @param initialDelay Initial delay to perform collect.
 	 * @param delay The delay before collect.
 	 * @param unit The delay time unit.
-	 * @param transformer Transform a target to a result.
-	 * @param combiner Combine two results.
-	 * @param consumer Consume a result.
-	 * @param <R> Type of result.
-	 */
-	<R> void collect(long initialDelay, long delay, TimeUnit unit,
-			Function<D, R> transformer, BinaryOperator<R> combiner,
-			final BiConsumer<R, Collection<D>> consumer) {
-		// TODO: support multiple collectors ...
-		if (this.schedule != null && !this.schedule.isDone()) {
+	 * @param fanout Collectors of flips.
+	 */
+	void collect(long initialDelay, long delay, TimeUnit unit, Fanout<K, D> fanout) {
+		if (this.fanout != null) {
 			throw new UnsupportedOperationException(
-					"Only one collector can be scheduled.");
+					"Collectors are already scheduled, add all to one fanout.");
 		}
-		this.schedule = ex.scheduleWithFixedDelay(new Runnable() {
-
-			@Override
-			public void run() {
-				final List<ForkJoinTask<?>> tasks = buckets.entrySet().parallelStream()
-						.filter(e -> e.getValue().isFlippable()).map(e -> {
-							return FJP.submit(new ReduceTask<R>(e.getKey(), transformer,
-									combiner, consumer));
-						}).collect(Collectors.toList());
-				sinking.set(!tasks.isEmpty());
-				tasks.forEach(t -> {
-					t.join();
-				});
-				sinking.set(false);
-			}
-		}, initialDelay, delay, unit);
+		this.accumulator = fanout.getAccumulator();
+		this.fanout = fanout;
+		fanout.measure(metrics);
+		schedule(initialDelay, delay, unit);
 		this.down = () -> {
-			buckets.forEachValue(Runtime.getRuntime().availableProcessors(), b -> {
-				b.reduce(transformer, combiner, consumer, true);
+			final Queue<CompletableFuture<Void>> flips = new ConcurrentLinkedQueue<>();
+			flush(b -> {
+				final Epoch<K, D> e = b.flip();
+				if (e != null) {
+					flips.add(b.collect(e, fanout));
+				}
 			});
-			buckets.clear();
+			final CompletableFuture<Void> all = CompletableFuture
+					.allOf(flips.toArray(new CompletableFuture<?>[0]));
+			final long timeout = Long.getLong("sifter.shutdown.timeout.mills", 30000);
+			try {
+				all.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// Subscribers not requesting hold flips forever ...
+				LOG.error("Flushed flips not delivered in {}ms, dropped.", timeout);
+				fanout.abandon(e);
+				all.join();
+			}
 			return Boolean.TRUE;
 		};
 	}
 
 	/**
-	 * Gracefully shutdown.
+	 * Gracefully shutdown, flushing every bucket. Set system property
+	 * <code>"sifter.shutdown.timeout.mills"</code> for max milliseconds to wait for
+	 * flushed flips to be delivered, default 30000, results not requested by then are
+	 * dropped and subscribers fail.
 	 */
 	public void shutdown() {
 		LOG.warn("Shutting down, flush all ...");
-		this.ex.shutdown();
+		stop();
 		// Sink all buckets
 		try {
-			sinking.set(true);
+			sinking.incrementAndGet();
 			final Boolean done = this.down.call();
 			if (done != null && done.booleanValue()) {
 				LOG.info("All flushed.");
@@ -242,79 +921,173 @@ public class Sifter<K, D extends Gradable<K>> {
 		} catch (Exception e) {
 			LOG.error("Unsuccessfull shutdown.", e);
 		} finally {
-			sinking.set(false);
+			sinking.decrementAndGet();
+		}
+		if (fanout != null) {
+			fanout.complete();
+		}
+		if (index != null) {
+			index.clear();
 		}
+		closeJournal();
 	}
 
 	/**
-	 * Task to reduce a bucket.
-	 * @author Chengwei.Yan
+	 * Stop without flushing buckets as if crashed, sifted targets are left to the journal
+	 * to be replayed by the next sifter on its directory.
 	 */
-	private final class ReduceTask<R> implements Runnable {
-
-		private final UUID key;
-		private final Function<D, R> transformer;
-		private final BinaryOperator<R> combiner;
-		private final BiConsumer<R, Collection<D>> consumer;
+	void halt() {
+		LOG.warn("Halting without flush ...");
+		stop();
+		closeJournal();
+	}
 
-		/**
-		 * Constructor
-		 */
-		private ReduceTask(final UUID key, final Function<D, R> transformer,
-				final BinaryOperator<R> combiner,
-				final BiConsumer<R, Collection<D>> consumer) {
-			this.key = key;
-			this.transformer = transformer;
-			this.combiner = combiner;
-			this.consumer = consumer;
+	/**
+	 * Stop schedules and ingestion.
+	 */
+	private void stop() {
+		if (spiller != null) {
+			MemPhaser.getInstance().removeListener(spiller);
+		}
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				LOG.warn("Failed to unregister " + name, e);
+			}
+			name = null;
+		}
+		if (schedule != null) {
+			schedule.cancel(false);
+		}
+		if (syncing != null) {
+			syncing.cancel(false);
+		}
+		runtime.detach(this);
+		for (Stripe<K, D> s : stripes) {
+			// Apply targets claimed so far before the flush ...
+			if (s.ring != null) {
+				s.ring.close();
+			}
+			s.deadlines.clear();
 		}
+	}
 
-		@Override
-		public void run() {
-			final Bucket<K, D> b = buckets.remove(key);
+	/**
+	 * Close the journal, releasing its directory.
+	 */
+	private void closeJournal() {
+		if (journal != null) {
 			try {
-				// Reducing ...
-				b.reduce(transformer, combiner, consumer);
-			} catch (Exception e) {
-				// pour back ...
-				buckets.merge(key, b, (b1, b2) -> {
-					return b1.merge(b2);
-				});
+				journal.close();
+			} catch (IOException e) {
+				LOG.error("Failed to close journal.", e);
 			}
 		}
+	}
 
+	/**
+	 * A partition of grade keys with its own buckets and flip deadlines.
+	 */
+	private static final class Stripe<K, D extends Gradable<K>> {
+
+		/** Map of buckets, keyed by grades. */
+		private final ConcurrentHashMap<GradeKey, Bucket<K, D>> buckets;
+		/** Flip deadlines of buckets, a tick only visits the due ones. */
+		private final DelayQueue<Deadline<K, D>> deadlines = new DelayQueue<>();
+		/** Is a collector tick running? */
+		private final AtomicBoolean ticking = new AtomicBoolean();
+		/** Ring of targets applied by the consumer of the stripe, null if sifted in place. */
+		private SiftRing<Map.Entry<GradeKey, D>> ring;
+
+		private Stripe(int initialCapacity, float loadFactor, int concurrencyLevel) {
+			this.buckets = new ConcurrentHashMap<>(initialCapacity, loadFactor,
+					concurrencyLevel);
+		}
 	}
 
 	/**
-	 * Task to sink a bucket.
+	 * Flip deadline of a bucket.
+	 */
+	private static final class Deadline<K, D extends Gradable<K>> implements Delayed {
+
+		private final Bucket<K, D> b;
+		private final long at;
+
+		private Deadline(Bucket<K, D> b, long at) {
+			this.b = b;
+			this.at = at;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.signum(at - ((Deadline<?, ?>) o).at);
+		}
+	}
+
+	/**
+	 * Task to flip a bucket to all collectors.
 	 * @author Chengwei.Yan
 	 */
-	private final class SinkTask implements Runnable {
+	private final class FlipTask implements Runnable {
 
-		private final UUID key;
-		private final BiConsumer<K, D> action;
+		private final Bucket<K, D> b;
+		private final Epoch<K, D> e;
 
 		/**
 		 * Constructor
 		 */
-		private SinkTask(final UUID key, final BiConsumer<K, D> action) {
-			this.key = key;
-			this.action = action;
+		private FlipTask(final Bucket<K, D> b, final Epoch<K, D> e) {
+			this.b = b;
+			this.e = e;
 		}
 
 		@Override
 		public void run() {
-			System.out.println("Sinking ... " + key);
-			final Bucket<K, D> b = buckets.remove(key);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Flipping ... {}", b.getKey());
+			}
+			final long start = System.nanoTime();
+			long bytes = 0;
+			Epoch<K, D> collected = null;
+			CompletableFuture<Void> done;
 			try {
-				// Sinking ...
-				b.sink(action);
-			} catch (Exception e) {
-				// pour back ...
-				buckets.merge(key, b, (b1, b2) -> {
-					return b1.merge(b2);
-				});
+				final Epoch<K, D> epoch = e != null ? e : b.flip();
+				if (epoch != null) {
+					bytes = epoch.getBytes();
+					limiter.weigh(bytes);
+					collected = epoch;
+					done = b.collect(epoch, fanout);
+				} else {
+					done = CompletableFuture.completedFuture(null);
+				}
+			} catch (Exception ex) {
+				done = new CompletableFuture<>();
+				done.completeExceptionally(ex);
 			}
+			final long weight = bytes;
+			final Epoch<K, D> flipped = collected;
+			// Completed by asynchronous collectors without holding this thread ...
+			done.whenComplete((v, ex) -> {
+				if (ex != null) {
+					LOG.error("Failed to flip " + b.getKey() + ", poured back.", ex);
+				} else if (flipped != null) {
+					metrics.flipped(System.nanoTime() - start);
+					unindex(b, flipped);
+				}
+				b.endFlip();
+				limiter.release(weight);
+				sinking.decrementAndGet();
+				// Filled up during the flip ...
+				if (b.isFull()) {
+					rotate(b);
+				}
+			});
 		}
 
 	}
@@ -0,0 +1,114 @@
+package com.cheeray.sifters;
+
+import java.util.Map;
+
+/**
+ * Management interface of a sifter, registered as
+ * <code>com.cheeray.sifters:type=Sifter,name=&lt;name&gt;</code>.
+ * @author Chengwei.Yan
+ */
+public interface SifterMXBean {
+
+	/**
+	 * Obtains number of targets sifted into buckets.
+	 */
+	public long getSifted();
+
+	/**
+	 * Obtains number of targets replaced by newer versions.
+	 */
+	public long getReplaced();
+
+	/**
+	 * Obtains number of targets rejected as ungraded.
+	 */
+	public long getUngraded();
+
+	/**
+	 * Obtains number of targets held in heap by buckets.
+	 */
+	public long getEntries();
+
+	/**
+	 * Obtains number of buckets.
+	 */
+	public int getBuckets();
+
+	/**
+	 * Obtains number of finished flips.
+	 */
+	public long getFlips();
+
+	/**
+	 * Obtains median latency of flips in nanoseconds.
+	 */
+	public long getFlipLatencyP50Nanos();
+
+	/**
+	 * Obtains 99th percentile latency of flips in nanoseconds.
+	 */
+	public long getFlipLatencyP99Nanos();
+
+	/**
+	 * Obtains max latency of flips in nanoseconds.
+	 */
+	public long getFlipLatencyMaxNanos();
+
+	/**
+	 * Obtains median latency of sinks of flips in nanoseconds, until every sink of a flip
+	 * is done.
+	 */
+	public long getSinkLatencyP50Nanos();
+
+	/**
+	 * Obtains 99th percentile latency of sinks of flips in nanoseconds.
+	 */
+	public long getSinkLatencyP99Nanos();
+
+	/**
+	 * Obtains max latency of sinks of flips in nanoseconds.
+	 */
+	public long getSinkLatencyMaxNanos();
+
+	/**
+	 * Obtains median latency of reducers of flips in nanoseconds, until every reduced
+	 * result of a flip is consumed.
+	 */
+	public long getReduceLatencyP50Nanos();
+
+	/**
+	 * Obtains 99th percentile latency of reducers of flips in nanoseconds.
+	 */
+	public long getReduceLatencyP99Nanos();
+
+	/**
+	 * Obtains max latency of reducers of flips in nanoseconds.
+	 */
+	public long getReduceLatencyMaxNanos();
+
+	/**
+	 * Obtains number of times the memory throttle blocked, shared by all sifters.
+	 */
+	public long getMemBlocks();
+
+	/**
+	 * Obtains total time blocked by the memory throttle in milliseconds, shared by all
+	 * sifters.
+	 */
+	public long getMemBlockedMillis();
+
+	/**
+	 * Obtains targets sifted of each live bucket.
+	 */
+	public Map<String, Long> getBucketSifted();
+
+	/**
+	 * Obtains targets replaced by newer versions of each live bucket.
+	 */
+	public Map<String, Long> getBucketReplaced();
+
+	/**
+	 * Obtains targets held in heap of each live bucket.
+	 */
+	public Map<String, Long> getBucketEntries();
+}
@@ -0,0 +1,199 @@
+package com.cheeray.sifters;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of a sifter. Counts of buckets are kept by buckets themselves, counts of
+ * retired buckets are folded in on retirement.
+ * @author Chengwei.Yan
+ */
+public final class SifterMetrics implements SifterMXBean {
+
+	/** Live buckets. */
+	private final Collection<? extends Bucket<?, ?>> buckets;
+	/** Targets sifted by retired buckets. */
+	private final LongAdder retiredSifted = new LongAdder();
+	/** Targets replaced in retired buckets. */
+	private final LongAdder retiredReplaced = new LongAdder();
+	/** Targets rejected as ungraded. */
+	private final LongAdder ungraded = new LongAdder();
+	/** Finished flips. */
+	private final LongAdder flips = new LongAdder();
+	/** Latency of flips. */
+	private final Histogram flipLatency = new Histogram();
+	/** Latency of sinks of flips. */
+	private final Histogram sinkLatency = new Histogram();
+	/** Latency of reducers of flips. */
+	private final Histogram reduceLatency = new Histogram();
+
+	/**
+	 * Constructor
+	 * @param buckets Live view of buckets.
+	 */
+	SifterMetrics(Collection<? extends Bucket<?, ?>> buckets) {
+		this.buckets = buckets;
+	}
+
+	void retired(Bucket<?, ?> b) {
+		retiredSifted.add(b.getSifted());
+		retiredReplaced.add(b.getReplaced());
+	}
+
+	void ungraded(int n) {
+		ungraded.add(n);
+	}
+
+	void flipped(long nanos) {
+		flips.increment();
+		flipLatency.record(nanos);
+	}
+
+	void sunk(long nanos) {
+		sinkLatency.record(nanos);
+	}
+
+	void reduced(long nanos) {
+		reduceLatency.record(nanos);
+	}
+
+	/**
+	 * Obtains latency histogram of flips in nanoseconds.
+	 */
+	public Histogram getFlipLatency() {
+		return flipLatency;
+	}
+
+	/**
+	 * Obtains latency histogram of sinks of flips in nanoseconds.
+	 */
+	public Histogram getSinkLatency() {
+		return sinkLatency;
+	}
+
+	/**
+	 * Obtains latency histogram of reducers of flips in nanoseconds.
+	 */
+	public Histogram getReduceLatency() {
+		return reduceLatency;
+	}
+
+	@Override
+	public long getSifted() {
+		return retiredSifted.sum() + sum(Bucket::getSifted);
+	}
+
+	@Override
+	public long getReplaced() {
+		return retiredReplaced.sum() + sum(Bucket::getReplaced);
+	}
+
+	@Override
+	public long getUngraded() {
+		return ungraded.sum();
+	}
+
+	@Override
+	public long getEntries() {
+		return sum(Bucket::size);
+	}
+
+	@Override
+	public int getBuckets() {
+		return buckets.size();
+	}
+
+	@Override
+	public long getFlips() {
+		return flips.sum();
+	}
+
+	@Override
+	public long getFlipLatencyP50Nanos() {
+		return flipLatency.getPercentile(50);
+	}
+
+	@Override
+	public long getFlipLatencyP99Nanos() {
+		return flipLatency.getPercentile(99);
+	}
+
+	@Override
+	public long getFlipLatencyMaxNanos() {
+		return flipLatency.getMax();
+	}
+
+	@Override
+	public long getSinkLatencyP50Nanos() {
+		return sinkLatency.getPercentile(50);
+	}
+
+	@Override
+	public long getSinkLatencyP99Nanos() {
+		return sinkLatency.getPercentile(99);
+	}
+
+	@Override
+	public long getSinkLatencyMaxNanos() {
+		return sinkLatency.getMax();
+	}
+
+	@Override
+	public long getReduceLatencyP50Nanos() {
+		return reduceLatency.getPercentile(50);
+	}
+
+	@Override
+	public long getReduceLatencyP99Nanos() {
+		return reduceLatency.getPercentile(99);
+	}
+
+	@Override
+	public long getReduceLatencyMaxNanos() {
+		return reduceLatency.getMax();
+	}
+
+	@Override
+	public long getMemBlocks() {
+		return MemPhaser.getInstance().getBlocks();
+	}
+
+	@Override
+	public long getMemBlockedMillis() {
+		return MemPhaser.getInstance().getBlockedMillis();
+	}
+
+	@Override
+	public Map<String, Long> getBucketSifted() {
+		return byBucket(Bucket::getSifted);
+	}
+
+	@Override
+	public Map<String, Long> getBucketReplaced() {
+		return byBucket(Bucket::getReplaced);
+	}
+
+	@Override
+	public Map<String, Long> getBucketEntries() {
+		return byBucket(Bucket::size);
+	}
+
+	private long sum(ToLongFunction<Bucket<?, ?>> f) {
+		long n = 0;
+		for (Bucket<?, ?> b : buckets) {
+			n += f.applyAsLong(b);
+		}
+		return n;
+	}
+
+	private Map<String, Long> byBucket(ToLongFunction<Bucket<?, ?>> f) {
+		final Map<String, Long> m = new HashMap<>();
+		for (Bucket<?, ?> b : buckets) {
+			m.put(b.getKey().toString(), f.applyAsLong(b));
+		}
+		return m;
+	}
+}
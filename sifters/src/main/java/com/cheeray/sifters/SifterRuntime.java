@@ -0,0 +1,137 @@
+package com.cheeray.sifters;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execution runtime shared by sifters, holding one scheduler of collectors, one pool of
+ * flips and one shutdown hook for all attached sifters.
+ * <p>
+ * A collector tick only triggers on the scheduler and runs in the flip pool, submitting
+ * at most {@link #getSlice()} flips at a time, so sifters with many buckets take turns
+ * with others instead of flooding the pool.
+ * </p>
+ * @author Chengwei.Yan
+ */
+public final class SifterRuntime {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SifterRuntime.class);
+
+	/** Internal default instance holder. */
+	private static class DefaultHolder {
+		private static SifterRuntime INSTANCE = new SifterRuntime();
+	}
+
+	/**
+	 * Obtains the default runtime, used by sifters built without a runtime.
+	 */
+	public static SifterRuntime getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/** Scheduler of collectors. */
+	private final ScheduledThreadPoolExecutor scheduler;
+	/** Pool of flips. */
+	private final ForkJoinPool pool;
+	/** Max flips submitted by a collector at a time. */
+	private final int slice;
+	/** Attached sifters. */
+	private final Set<Sifter<?, ?>> sifters;
+	/** Shutdown hook of the runtime. */
+	private final Thread hook;
+
+	/**
+	 * Runtime of a scheduler thread and a flip pool of all processors.
+	 */
+	public SifterRuntime() {
+		this(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 * @param schedulerThreads Threads of the scheduler.
+	 * @param parallelism Parallelism of the flip pool, also the max flips submitted by a
+	 * collector at a time.
+	 */
+	public SifterRuntime(int schedulerThreads, int parallelism) {
+		if (schedulerThreads <= 0 || parallelism <= 0)
+			throw new IllegalArgumentException("Threads must be positive.");
+		final AtomicInteger seq = new AtomicInteger();
+		this.scheduler = new ScheduledThreadPoolExecutor(schedulerThreads, r -> {
+			final Thread t = new Thread(r, "sifter-scheduler-" + seq.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		this.pool = new ForkJoinPool(parallelism);
+		this.slice = parallelism;
+		this.sifters = ConcurrentHashMap.newKeySet();
+		this.hook = new Thread() {
+			public void run() {
+				shutdown();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Obtains max flips submitted by a collector at a time.
+	 */
+	public int getSlice() {
+		return slice;
+	}
+
+	/**
+	 * Attach a sifter to be shutdown with the runtime.
+	 */
+	void attach(Sifter<?, ?> sifter) {
+		sifters.add(sifter);
+	}
+
+	/**
+	 * Detach a sifter shutdown by itself.
+	 */
+	void detach(Sifter<?, ?> sifter) {
+		sifters.remove(sifter);
+	}
+
+	/**
+	 * Gracefully shutdown all attached sifters, then the runtime.
+	 */
+	public void shutdown() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException e) {
+			// The JVM is shutting down ...
+		}
+		for (Sifter<?, ?> s : sifters) {
+			s.shutdown();
+		}
+		scheduler.shutdown();
+		pool.shutdown();
+		try {
+			if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+				LOG.warn("Flips are still running after shutdown.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.cheeray.sifters;
+
+/**
+ * Accumulator of a fixed size summary, e.g. distinct counts, heavy hitters or quantiles.
+ * A bucket accumulating a sketch keeps no targets, every arrival is added to the summary
+ * once, so memory of a bucket is fixed however many targets arrive. Summaries of buckets
+ * or nodes are merged into one.
+ * @param D Type of the target graded object.
+ * @param R Type of summary.
+ * @author Chengwei.Yan
+ * @see Sketches
+ */
+public interface Sketch<D, R> extends Accumulator<D, R> {
+
+	/**
+	 * Merge a summary into another.
+	 * @param r The summary to merge into.
+	 * @param other The summary to merge from, unchanged.
+	 * @return the merged summary.
+	 */
+	public R merge(R r, R other);
+
+	/**
+	 * Never called, a sketch keeps no targets to be replaced.
+	 */
+	@Override
+	public default void retract(R r, D d) {
+		throw new UnsupportedOperationException("A sketch never retracts.");
+	}
+}
@@ -0,0 +1,158 @@
+package com.cheeray.sifters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Built-in sketches of fixed memory, all adding concurrently without locks.
+ * <p>
+ * Values are hashed the same on every node, so sketches merge across nodes. Numbers,
+ * character sequences, enums and byte arrays are hashed by value, any other value type
+ * must override <code>hashCode()</code> by value.
+ * </p>
+ * @author Chengwei.Yan
+ */
+public final class Sketches {
+
+	private Sketches() {
+	}
+
+	/**
+	 * 64-bit hash of a value, stable across processes so sketches of nodes merge. Numbers
+	 * are hashed by value, character sequences by their UTF-8 bytes, enums by name, other
+	 * values by <code>hashCode()</code> which must be value based.
+	 */
+	static long hash(Object v) {
+		final long h;
+		if (v == null) {
+			h = 0;
+		} else if (v instanceof Long || v instanceof Integer || v instanceof Short
+				|| v instanceof Byte) {
+			h = ((Number) v).longValue();
+		} else if (v instanceof Double || v instanceof Float) {
+			h = Double.doubleToLongBits(((Number) v).doubleValue());
+		} else if (v instanceof CharSequence) {
+			h = fnv(v.toString().getBytes(StandardCharsets.UTF_8));
+		} else if (v instanceof Enum) {
+			h = fnv(((Enum<?>) v).name().getBytes(StandardCharsets.UTF_8));
+		} else if (v instanceof byte[]) {
+			h = fnv((byte[]) v);
+		} else {
+			h = v.hashCode();
+		}
+		return mix(h);
+	}
+
+	/**
+	 * FNV-1a hash of bytes.
+	 */
+	private static long fnv(byte[] bytes) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Finalize a 64-bit hash.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Count distinct values by HyperLogLog of precision 12, about 1.6% error in 4K
+	 * registers.
+	 * @param value Value of a target.
+	 */
+	public static <D> Sketch<D, HyperLogLog> distinct(Function<? super D, ?> value) {
+		return distinct(value, 12);
+	}
+
+	/**
+	 * Count distinct values by HyperLogLog.
+	 * @param value Value of a target.
+	 * @param precision Bits of register index, between 4 and 18.
+	 */
+	public static <D> Sketch<D, HyperLogLog> distinct(Function<? super D, ?> value,
+			int precision) {
+		if (precision < 4 || precision > 18)
+			throw new IllegalArgumentException("Precision must be between 4 and 18.");
+		return new Sketch<D, HyperLogLog>() {
+
+			@Override
+			public HyperLogLog create() {
+				return new HyperLogLog(precision);
+			}
+
+			@Override
+			public void add(HyperLogLog r, D d) {
+				r.add(hash(value.apply(d)));
+			}
+
+			@Override
+			public HyperLogLog merge(HyperLogLog r, HyperLogLog other) {
+				return r.merge(other);
+			}
+		};
+	}
+
+	/**
+	 * Heavy hitters of values by Count-Min.
+	 * @param value Value of a target.
+	 * @param k Number of heavy hitters.
+	 */
+	public static <D, T> Sketch<D, TopK<T>> topK(Function<? super D, T> value, int k) {
+		if (k <= 0)
+			throw new IllegalArgumentException("K must be positive.");
+		return new Sketch<D, TopK<T>>() {
+
+			@Override
+			public TopK<T> create() {
+				return new TopK<>(k);
+			}
+
+			@Override
+			public void add(TopK<T> r, D d) {
+				r.add(value.apply(d));
+			}
+
+			@Override
+			public TopK<T> merge(TopK<T> r, TopK<T> other) {
+				return r.merge(other);
+			}
+		};
+	}
+
+	/**
+	 * Quantiles of non-negative values, within 12.5% of recorded values.
+	 * @param value Value of a target, e.g. a latency.
+	 */
+	public static <D> Sketch<D, Histogram> quantiles(ToLongFunction<? super D> value) {
+		return new Sketch<D, Histogram>() {
+
+			@Override
+			public Histogram create() {
+				return new Histogram();
+			}
+
+			@Override
+			public void add(Histogram r, D d) {
+				r.record(value.applyAsLong(d));
+			}
+
+			@Override
+			public Histogram merge(Histogram r, Histogram other) {
+				return r.merge(other);
+			}
+		};
+	}
+}
@@ -0,0 +1,54 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Spill configuration, targets are written to memory-mapped segment files in a directory
+ * while memory is short.
+ * <p>
+ * Set system property <code>"sifter.spill.segment.bytes"</code> for the size of a
+ * segment file, default 64MB. And <code>"sifter.spill.min.entries"</code> for the least
+ * entries held in heap by a bucket to spill, default 1024.
+ * </p>
+ * @param D Type of the target graded object.
+ * @author Chengwei.Yan
+ */
+final class Spill<D> {
+
+	/** Directory of segment files. */
+	private final Path dir;
+	/** Codec of targets. */
+	private final Codec<D> codec;
+	/** Size of a segment file. */
+	private final int segmentBytes;
+	/** Least entries of a bucket to spill. */
+	private final int minEntries;
+
+	/**
+	 * Constructor
+	 */
+	Spill(Path dir, Codec<D> codec) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.codec = codec;
+		this.segmentBytes = Integer.getInteger("sifter.spill.segment.bytes", 64 << 20);
+		this.minEntries = Integer.getInteger("sifter.spill.min.entries", 1024);
+	}
+
+	Codec<D> getCodec() {
+		return codec;
+	}
+
+	int getMinEntries() {
+		return minEntries;
+	}
+
+	/**
+	 * Create a segment large enough for a record.
+	 * @param record Size of the record to append.
+	 */
+	SpillSegment segment(int record) throws IOException {
+		return new SpillSegment(dir, Math.max(segmentBytes, record + 4));
+	}
+}
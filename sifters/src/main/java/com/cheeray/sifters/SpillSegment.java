@@ -0,0 +1,114 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Append-only memory-mapped file of length prefixed records.
+ * <p>
+ * The whole capacity is mapped on creation. Java offers no way to unmap a buffer, so the
+ * mapping holds its address space, and on most systems the disk blocks of the deleted
+ * file, until the segment is garbage collected.
+ * </p>
+ * @author Chengwei.Yan
+ */
+final class SpillSegment {
+
+	/** Segment file. */
+	private final Path file;
+	/** Mapped content. */
+	private final MappedByteBuffer buf;
+
+	/**
+	 * Create a segment file.
+	 * @param dir Directory of segment files.
+	 * @param capacity Capacity in bytes.
+	 */
+	SpillSegment(Path dir, int capacity) throws IOException {
+		this.file = Files.createTempFile(dir, "sifter-", ".seg");
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			this.buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+	}
+
+	/**
+	 * Append a record.
+	 * @param bytes The record.
+	 * @return position of the record, -1 if no enough room.
+	 */
+	int append(byte[] bytes) {
+		if (buf.remaining() < bytes.length + 4) {
+			return -1;
+		}
+		final int position = buf.position();
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+		return position;
+	}
+
+	/**
+	 * Read appended records lazily, one record at a time.
+	 * @param decoder Decoder of a record, skipped if decoded as null.
+	 */
+	<T> Stream<T> read(RecordDecoder<T> decoder) {
+		final ByteBuffer r = buf.duplicate();
+		((Buffer) r).flip();
+		return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				while (r.hasRemaining()) {
+					final int position = r.position();
+					final byte[] bytes = new byte[r.getInt()];
+					r.get(bytes);
+					final T t;
+					try {
+						t = decoder.decode(position, bytes);
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed to read " + file, e);
+					}
+					if (t != null) {
+						action.accept(t);
+						return true;
+					}
+				}
+				return false;
+			}
+		}, false);
+	}
+
+	/**
+	 * Delete the segment file, the mapping is released once unreachable.
+	 */
+	void delete() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Reader of a record.
+	 */
+	interface RecordReader {
+		void read(byte[] bytes) throws IOException;
+	}
+
+	/**
+	 * Decoder of a record at its position.
+	 */
+	interface RecordDecoder<T> {
+		T decode(int position, byte[] bytes) throws IOException;
+	}
+}
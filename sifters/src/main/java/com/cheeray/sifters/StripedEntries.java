@@ -0,0 +1,143 @@
+package com.cheeray.sifters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Entries of a hot bucket split into sub-maps by writer thread, so writers of the same
+ * grades do not contend on a single map. Each stripe resolves versions locally, a key may
+ * be held by several stripes until merged by key and version at flip time.
+ * @author Chengwei.Yan
+ */
+final class StripedEntries<K, D extends Gradable<K>> implements Entries<K, D> {
+
+	/** Sub-maps, selected by writer thread. */
+	private final Entries<K, D>[] stripes;
+	/** A target fit for the key type of entries. */
+	private final D sample;
+	/** Entries of all stripes, a key held by several stripes is counted by each. */
+	private final LongAdder entries;
+
+	/**
+	 * Constructor
+	 * @param n Number of stripes, rounded up to a power of two.
+	 * @param sample A target fit for the key type.
+	 */
+	StripedEntries(int n, D sample) {
+		this.stripes = stripes(n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1);
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = Entries.of(sample);
+		}
+		this.sample = sample;
+		this.entries = new LongAdder();
+	}
+
+	@SuppressWarnings({
+			"unchecked", "rawtypes"
+	})
+	private static <K, D extends Gradable<K>> Entries<K, D>[] stripes(int n) {
+		return new Entries[n];
+	}
+
+	/**
+	 * Obtains the stripe of the current thread.
+	 */
+	private Entries<K, D> stripe() {
+		long h = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+		return stripes[(int) (h >>> 32) & (stripes.length - 1)];
+	}
+
+	@Override
+	public D putIfAbsent(D d) {
+		final D ex = stripe().putIfAbsent(d);
+		if (ex == null) {
+			entries.increment();
+		}
+		return ex;
+	}
+
+	@Override
+	public boolean replace(D ex, D d) {
+		return stripe().replace(ex, d);
+	}
+
+	@Override
+	public boolean remove(D d) {
+		boolean removed = false;
+		for (Entries<K, D> s : stripes) {
+			if (s.remove(d)) {
+				entries.decrement();
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public D get(K key) {
+		D newest = null;
+		for (Entries<K, D> s : stripes) {
+			final D d = s.get(key);
+			if (d != null && (newest == null || compareVersion(d, newest) >= 0)) {
+				newest = d;
+			}
+		}
+		return newest;
+	}
+
+	@Override
+	public int compareVersion(D a, D b) {
+		return stripes[0].compareVersion(a, b);
+	}
+
+	/**
+	 * Obtains an upper bound of distinct keys, a key held by several stripes is counted by
+	 * each until merged. So a bucket may be full before its max entries are distinct.
+	 */
+	@Override
+	public long size() {
+		return entries.sum();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Entries<K, D> s : stripes) {
+			if (!s.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Obtains a merged snapshot of targets.
+	 */
+	@Override
+	public Collection<D> values() {
+		return merge().values();
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super K, ? super D> action) {
+		merge().forEach(action);
+	}
+
+	/**
+	 * Merge stripes in parallel into a single map, keeping the newest version of a key.
+	 */
+	Entries<K, D> merge() {
+		final Entries<K, D> merged = Entries.of(sample);
+		Arrays.stream(stripes).parallel().forEach(s -> {
+			for (D d : s.values()) {
+				D ex = merged.putIfAbsent(d);
+				while (ex != null && merged.compareVersion(ex, d) <= 0
+						&& !merged.replace(ex, d)) {
+					ex = merged.putIfAbsent(d);
+				}
+			}
+		});
+		return merged;
+	}
+}
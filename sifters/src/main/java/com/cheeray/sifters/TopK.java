@@ -0,0 +1,146 @@
+package com.cheeray.sifters;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Heavy hitters of values, counted by a Count-Min sketch of fixed width and depth, with
+ * a bounded set of candidates ranked by their estimated counts. Counts are never under
+ * estimated. Adding is lock-free except pruning the candidates once they double.
+ * @param T Type of values.
+ * @author Chengwei.Yan
+ */
+public final class TopK<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Rows of counters. */
+	private static final int DEPTH = 4;
+
+	/** Number of heavy hitters. */
+	private final int k;
+	/** Counters of a row. */
+	private final int width;
+	/** Counters of all rows. */
+	private final AtomicLongArray counters;
+	/** Candidates of heavy hitters with estimated counts. */
+	private final ConcurrentHashMap<T, Long> candidates;
+	/** Least count of a kept candidate since the last prune. */
+	private volatile long floor;
+
+	/**
+	 * Constructor
+	 * @param k Number of heavy hitters.
+	 */
+	public TopK(int k) {
+		this(k, Math.max(1024, k * 64));
+	}
+
+	/**
+	 * Constructor
+	 * @param k Number of heavy hitters.
+	 * @param width Counters of a row, the error of a count is about
+	 * <code>e / width</code> of total count.
+	 */
+	public TopK(int k, int width) {
+		if (k <= 0 || width <= 0)
+			throw new IllegalArgumentException("K and width must be positive.");
+		this.k = k;
+		this.width = width;
+		this.counters = new AtomicLongArray(DEPTH * width);
+		this.candidates = new ConcurrentHashMap<>(4 * k);
+	}
+
+	/**
+	 * Index of a value in a row.
+	 */
+	private int index(long h, int row) {
+		return row * width + Math.floorMod((int) h + row * (int) (h >>> 32), width);
+	}
+
+	/**
+	 * Count a value once.
+	 */
+	public void add(T t) {
+		final long h = Sketches.hash(t);
+		long est = Long.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			est = Math.min(est, counters.incrementAndGet(index(h, i)));
+		}
+		offer(t, est);
+	}
+
+	/**
+	 * Obtains the estimated count of a value.
+	 */
+	public long estimate(T t) {
+		final long h = Sketches.hash(t);
+		long est = Long.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			est = Math.min(est, counters.get(index(h, i)));
+		}
+		return est;
+	}
+
+	private void offer(T t, long est) {
+		if (est > floor || candidates.size() < 2 * k) {
+			candidates.merge(t, est, Math::max);
+			if (candidates.size() > 4 * k) {
+				prune();
+			}
+		}
+	}
+
+	/**
+	 * Keep the top <code>2k</code> candidates.
+	 */
+	private synchronized void prune() {
+		if (candidates.size() <= 2 * k) {
+			return;
+		}
+		final List<Map.Entry<T, Long>> es = sorted();
+		for (Map.Entry<T, Long> e : es.subList(2 * k, es.size())) {
+			candidates.remove(e.getKey(), e.getValue());
+		}
+		floor = es.get(2 * k - 1).getValue();
+	}
+
+	private List<Map.Entry<T, Long>> sorted() {
+		final List<Map.Entry<T, Long>> es = new ArrayList<>(candidates.size());
+		candidates.forEach((t, c) -> es.add(new AbstractMap.SimpleImmutableEntry<>(t, c)));
+		es.sort(Map.Entry.<T, Long> comparingByValue().reversed());
+		return es;
+	}
+
+	/**
+	 * Obtains the heavy hitters with estimated counts, in descending order of counts.
+	 */
+	public List<Map.Entry<T, Long>> getTop() {
+		final List<Map.Entry<T, Long>> es = sorted();
+		return es.size() > k ? new ArrayList<>(es.subList(0, k)) : es;
+	}
+
+	/**
+	 * Merge counters and candidates of another sketch of the same width.
+	 * @return this sketch.
+	 */
+	public TopK<T> merge(TopK<T> other) {
+		if (other.width != width)
+			throw new IllegalArgumentException("Widths are different.");
+		for (int i = 0; i < counters.length(); i++) {
+			counters.addAndGet(i, other.counters.get(i));
+		}
+		final List<T> ts = new ArrayList<>(candidates.keySet());
+		ts.addAll(other.candidates.keySet());
+		for (T t : ts) {
+			candidates.put(t, estimate(t));
+		}
+		prune();
+		return this;
+	}
+}
@@ -0,0 +1,57 @@
+package com.cheeray.sifters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spec of a sliding window over flips of each bucket. Each flip is reduced once into a
+ * pane of the slide it falls in, a window result combines the panes of the last window
+ * size, so targets are transformed exactly once however many windows cover them.
+ * <p>
+ * Buckets should flip every slide, e.g. a 5 minutes window every 10 seconds is graded
+ * with a 10 seconds delay.
+ * </p>
+ * @author Chengwei.Yan
+ */
+public final class Window {
+
+	/**
+	 * A sliding window.
+	 * @param size Size of the window, a multiple of the slide.
+	 * @param slide Interval between windows.
+	 * @param unit Time unit of size and slide.
+	 */
+	public static Window sliding(long size, long slide, TimeUnit unit) {
+		if (size <= 0 || slide <= 0 || size % slide != 0)
+			throw new IllegalArgumentException(
+					"Window size must be a positive multiple of the slide.");
+		return new Window(unit.toMillis(slide), (int) (size / slide));
+	}
+
+	/** Slide in milliseconds. */
+	private final long slideMillis;
+	/** Panes of a window. */
+	private final int panes;
+
+	private Window(long slideMillis, int panes) {
+		if (slideMillis <= 0)
+			throw new IllegalArgumentException("Slide must be at least a millisecond.");
+		this.slideMillis = slideMillis;
+		this.panes = panes;
+	}
+
+	long getSlideMillis() {
+		return slideMillis;
+	}
+
+	int getPanes() {
+		return panes;
+	}
+
+	/**
+	 * Obtains the pane of a time.
+	 * @param millis Time in milliseconds.
+	 */
+	long pane(long millis) {
+		return millis / slideMillis;
+	}
+}
@@ -20,10 +20,13 @@
  * after a given delay set by system property <code>"sifter.collect.delay"</code> and time
  * unit <code>"sifter.collect.delay.unit"</code>.
  * <p>
- * Built-in memory throttle can pause data flow till configured free memory ratio is
- * satisfied. The minimum ratio is configured by system property
- * <code>"sifter.mem.free.percent"</code>, default is 30.
+ * Built-in memory throttle can pause data flow till configured free memory ratio of the
+ * old generation is satisfied. The minimum ratio is configured by system property
+ * <code>"sifter.mem.free.percent"</code>, default is 30, and data flow resumes once a
+ * collection frees up to <code>"sifter.mem.release.percent"</code>, default is 40.
+ * A sifter built with a spill directory and {@link com.cheeray.sifters.Codec} writes the
+ * largest buckets to memory-mapped segment files instead of pausing data flow.
  * </p>
  * @author Chengwei.Yan
  */
-package com.cheeray.sifters;
\ No newline at end of file
+package com.cheeray.sifters;
\ No newline at end of file
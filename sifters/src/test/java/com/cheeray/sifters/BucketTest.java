@@ -27,13 +27,13 @@ public class BucketTest {
 	public Object[][] dp() {
 		return new Object[][] {
 				new Object[] {
-						UUID.randomUUID(), 0, TimeUnit.SECONDS
+						GradeKey.of(Grade.from("A")), 0, TimeUnit.SECONDS
 				}, new Object[] {
-						UUID.randomUUID(), -1, TimeUnit.SECONDS
+						GradeKey.of(Grade.from("A", "B")), -1, TimeUnit.SECONDS
 				}, new Object[] {
-						UUID.randomUUID(), 100, TimeUnit.SECONDS
+						GradeKey.of(Grade.from("A", 1)), 100, TimeUnit.SECONDS
 				}, new Object[] {
-						UUID.randomUUID(), -100, TimeUnit.SECONDS
+						GradeKey.of(Grade.from()), -100, TimeUnit.SECONDS
 				}, new Object[] {
 						null, 1l, TimeUnit.SECONDS
 				},
@@ -41,7 +41,7 @@ public class BucketTest {
 	}
 
 	@Test(dataProvider = "init")
-	public void Bucket(UUID key, long delay, TimeUnit unit) throws IOException {
+	public void Bucket(GradeKey key, long delay, TimeUnit unit) throws IOException {
 		final Bucket b = new Bucket(key, delay, unit);
 		System.out.println(System.getProperty("java.io.tmpdir"));
 		Assert.assertNotNull(b);
@@ -49,7 +49,7 @@ public class BucketTest {
 
 	@Test
 	public void add() {
-		final Bucket b = new Bucket(UUID.randomUUID(), 10, TimeUnit.SECONDS);
+		final Bucket b = new Bucket(GradeKey.of(Grade.from("A")), 10, TimeUnit.SECONDS);
 		Gradable d = new Gradable<String>() {
 
 			@Override
@@ -0,0 +1,36 @@
+package com.cheeray.sifters;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FlipPolicyTest {
+
+	@Test
+	public void adaptive() {
+		final FlipPolicy p = FlipPolicy.adaptive(10, 1000, TimeUnit.MILLISECONDS, 100);
+		final GradingConfig cfg = new GradingConfig(200, TimeUnit.MILLISECONDS).adaptive(p);
+		final Bucket<Long, Item> b = new Bucket<>(GradeKey.of(Grade.from("A")), cfg);
+		Assert.assertEquals(b.getDelayNanos(), TimeUnit.MILLISECONDS.toNanos(200));
+		// 1000 targets in 100 millis, 100 targets per 10 millis ...
+		b.adapt(1000, TimeUnit.MILLISECONDS.toNanos(100), 0);
+		Assert.assertEquals(b.getDelayNanos(), TimeUnit.MILLISECONDS.toNanos(10));
+		// Cold bucket backs off to the max delay ...
+		for (int i = 0; i < 8; i++) {
+			b.skip();
+		}
+		Assert.assertEquals(b.getDelayNanos(), TimeUnit.SECONDS.toNanos(1));
+		// Hot bucket is bound by the min delay ...
+		Assert.assertEquals(p.next(1, 0), TimeUnit.MILLISECONDS.toNanos(10));
+	}
+
+	@Test
+	public void latency() {
+		final FlipPolicy p = FlipPolicy.adaptive(10, 1000, TimeUnit.MILLISECONDS, 100)
+				.latency(300, TimeUnit.MILLISECONDS);
+		// 100 targets per second wants 1 second, shortened by 100 millis to collect ...
+		Assert.assertEquals(p.next(1e-7, TimeUnit.MILLISECONDS.toNanos(100)),
+				TimeUnit.MILLISECONDS.toNanos(200));
+	}
+}
@@ -0,0 +1,59 @@
+package com.cheeray.sifters;
+
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class GradeKeyTest {
+
+	@Test
+	public void of() {
+		final GradeKey a = GradeKey.of(Grade.from("A1", "B1", "C1", 1));
+		final GradeKey b = GradeKey.of(Grade.from("A1", "B1", "C1", 1));
+		Assert.assertEquals(a, b);
+		Assert.assertEquals(a.hashCode(), b.hashCode());
+		Assert.assertNotEquals(a, GradeKey.of(Grade.from("A1", "B1", "C1", 2)));
+		Assert.assertNotEquals(a, GradeKey.of(Grade.from("A1", "B1", "C1")));
+		Assert.assertNotEquals(a, GradeKey.of(Grade.from("B1", "A1", "C1", 1)));
+		Assert.assertNotEquals(GradeKey.of(Grade.from(1)), GradeKey.of(Grade.from(1L)));
+	}
+
+	@Test
+	public void unordered() {
+		final Grade<?>[] gs = Grade.from("A1", "B1", "C1");
+		final Grade<?>[] rs = new Grade<?>[] {
+				gs[2], gs[0], gs[1]
+		};
+		Assert.assertEquals(GradeKey.of(gs), GradeKey.of(rs));
+		// Never sorts the given grades ...
+		Assert.assertEquals(rs[0].getLevel(), 2);
+	}
+
+	@Test
+	public void copied() {
+		final Grade<?>[] gs = Grade.from("A1", "B1");
+		final GradeKey k = GradeKey.of(gs);
+		gs[0] = Grade.from("A2")[0];
+		k.getGrades()[1] = null;
+		Assert.assertEquals(k.getGrades()[0].getT(), "A1");
+		Assert.assertEquals(k.getGrades()[1].getT(), "B1");
+	}
+
+	@Test
+	public void interned() {
+		Assert.assertSame(Grade.from("A1")[0], Grade.from("A1")[0]);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void unserializable() {
+		Grade.from(new Object());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void toUUID() throws IOException {
+		final GradeKey k = GradeKey.of(Grade.from("A1", "B1"));
+		Assert.assertEquals(Grade.toUUID(Grade.from("A1", "B1")), k.toUUID());
+	}
+}
@@ -0,0 +1,23 @@
+package com.cheeray.sifters;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void percentile() {
+		final Histogram h = new Histogram();
+		Assert.assertEquals(h.getPercentile(99), 0);
+		for (long v = 1; v <= 1000; v++) {
+			h.record(v * 1000);
+		}
+		Assert.assertEquals(h.getCount(), 1000);
+		Assert.assertEquals(h.getMax(), 1000000);
+		Assert.assertEquals(h.getMean(), 500500d);
+		// Within the precision of a range ...
+		Assert.assertTrue(Math.abs(h.getPercentile(50) - 500000) <= 500000 / 8);
+		Assert.assertTrue(Math.abs(h.getPercentile(99) - 990000) <= 990000 / 8);
+		Assert.assertEquals(h.getPercentile(100), 1000000);
+	}
+}
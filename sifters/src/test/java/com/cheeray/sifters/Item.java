@@ -0,0 +1,45 @@
+package com.cheeray.sifters;
+
+import java.time.Instant;
+
+import com.cheeray.sifters.Grade;
+import com.cheeray.sifters.LongGradable;
+
+public class Item implements LongGradable {
+
+	private final long id;
+	private final String a;
+	private final int e;
+	private final long version;
+
+	Item(long id, String a, int e, long version) {
+		this.id = id;
+		this.a = a;
+		this.e = e;
+		this.version = version;
+	}
+
+	@Override
+	public long getKeyAsLong() {
+		return id;
+	}
+
+	@Override
+	public long getVersionNanos() {
+		return version;
+	}
+
+	@Override
+	public Instant getVersion() {
+		return Instant.ofEpochSecond(0, version);
+	}
+
+	@Override
+	public Grade<?>[] getGrades() {
+		return Grade.from(a);
+	}
+
+	public int getE() {
+		return e;
+	}
+}
@@ -0,0 +1,57 @@
+package com.cheeray.sifters;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LongEntriesTest {
+
+	@Test
+	public void putAndRemove() {
+		final LongEntries es = new LongEntries();
+		final Item[] items = new Item[10000];
+		for (int i = 0; i < items.length; i++) {
+			// Clustered keys, including zero and negative ...
+			items[i] = new Item(i - 100, "A", i, 0);
+			Assert.assertNull(es.putIfAbsent(items[i]));
+		}
+		Assert.assertEquals(es.size(), items.length);
+		for (int i = 0; i < items.length; i += 2) {
+			Assert.assertTrue(es.remove(items[i]));
+			Assert.assertFalse(es.remove(items[i]));
+		}
+		Assert.assertEquals(es.size(), items.length / 2);
+		// Remaining keys are still reachable after deletions ...
+		for (int i = 1; i < items.length; i += 2) {
+			Assert.assertSame(es.putIfAbsent(new Item(i - 100, "A", 0, 0)), items[i]);
+		}
+		final Set<Long> keys = new HashSet<>();
+		es.values().forEach(d -> keys.add(d.getKeyAsLong()));
+		Assert.assertEquals(keys.size(), items.length / 2);
+		final Item newer = new Item(-99, "A", 0, 1);
+		Assert.assertTrue(es.replace(items[1], newer));
+		Assert.assertFalse(es.replace(items[1], newer));
+		Assert.assertTrue(es.compareVersion(newer, items[1]) > 0);
+	}
+
+	@Test
+	public void bucket() {
+		final Bucket<Long, Item> b = new Bucket<>(GradeKey.of(Grade.from("A")), 1,
+				TimeUnit.HOURS);
+		for (int i = 0; i < 1000; i++) {
+			b.tryAdd(new Item(i, "A", 1, 1));
+			// Older versions are ignored ...
+			b.tryAdd(new Item(i, "A", 100, 0));
+		}
+		final AtomicInteger total = new AtomicInteger();
+		b.sink((k, d) -> {
+			total.addAndGet(d.getE());
+		}, true);
+		Assert.assertEquals(total.get(), 1000);
+		Assert.assertTrue(b.isEmpty());
+	}
+}
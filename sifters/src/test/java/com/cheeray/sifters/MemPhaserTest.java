@@ -0,0 +1,44 @@
+package com.cheeray.sifters;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class MemPhaserTest {
+
+	@AfterMethod
+	public void afterMethod() {
+		MemPhaser.getInstance().release();
+	}
+
+	@Test
+	public void tryAwait() {
+		final MemPhaser m = MemPhaser.getInstance();
+		Assert.assertTrue(m.tryAwait(10, TimeUnit.MILLISECONDS));
+		m.block();
+		Assert.assertTrue(m.isBlocking());
+		final long start = System.nanoTime();
+		Assert.assertFalse(m.tryAwait(50, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		m.release();
+		Assert.assertFalse(m.isBlocking());
+		Assert.assertTrue(m.tryAwait(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void release() throws InterruptedException {
+		final MemPhaser m = MemPhaser.getInstance();
+		m.block();
+		final Thread t = new Thread(() -> {
+			m.await();
+		});
+		t.start();
+		t.join(100);
+		Assert.assertTrue(t.isAlive());
+		m.release();
+		t.join(1000);
+		Assert.assertFalse(t.isAlive());
+	}
+}
@@ -0,0 +1,58 @@
+package com.cheeray.sifters;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PanesTest {
+
+	@Test
+	public void sliding() {
+		// 3 panes of 10 seconds ...
+		final Window w = Window.sliding(30, 10, TimeUnit.SECONDS);
+		Assert.assertEquals(w.pane(25000), 2);
+		final Panes<Integer> panes = new Panes<>(w, Integer::sum);
+		final GradeKey a = GradeKey.of(Grade.from("A"));
+		final GradeKey b = GradeKey.of(Grade.from("B"));
+		Assert.assertEquals(panes.add(a, 1, 1).intValue(), 1);
+		Assert.assertEquals(panes.add(a, 2, 2).intValue(), 3);
+		// Flipped again in the same pane ...
+		Assert.assertEquals(panes.add(a, 2, 4).intValue(), 7);
+		Assert.assertEquals(panes.add(a, 3, 8).intValue(), 15);
+		// Pane 1 slides out ...
+		Assert.assertEquals(panes.add(a, 4, 16).intValue(), 30);
+		// Skipped panes slide out too ...
+		Assert.assertEquals(panes.add(a, 6, 32).intValue(), 48);
+		// Too late for the window ...
+		Assert.assertEquals(panes.add(a, 3, 64).intValue(), 48);
+		Assert.assertEquals(panes.add(b, 6, 100).intValue(), 100);
+		Assert.assertEquals(panes.size(), 2);
+		// Flipped in the pane, nothing to advance ...
+		final Map<GradeKey, Integer> idle = new HashMap<>();
+		panes.advance(6, idle::put);
+		Assert.assertTrue(idle.isEmpty());
+		// Idle buckets slide their panes out ...
+		Assert.assertEquals(panes.add(b, 7, 1).intValue(), 101);
+		panes.advance(7, idle::put);
+		Assert.assertEquals(idle.size(), 1);
+		Assert.assertEquals(idle.get(a).intValue(), 32);
+		// Once no pane is left, a null result is emitted and the ring removed ...
+		idle.clear();
+		panes.advance(9, idle::put);
+		Assert.assertTrue(idle.containsKey(a));
+		Assert.assertNull(idle.get(a));
+		Assert.assertEquals(idle.get(b).intValue(), 1);
+		Assert.assertEquals(panes.size(), 1);
+		idle.clear();
+		panes.advance(9, idle::put);
+		Assert.assertTrue(idle.isEmpty());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void size() {
+		Window.sliding(25, 10, TimeUnit.SECONDS);
+	}
+}
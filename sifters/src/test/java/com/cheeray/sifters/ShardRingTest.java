@@ -0,0 +1,39 @@
+package com.cheeray.sifters;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ShardRingTest {
+
+	@Test
+	public void join() {
+		final InetSocketAddress a = new InetSocketAddress("127.0.0.1", 7001);
+		final InetSocketAddress b = new InetSocketAddress("127.0.0.1", 7002);
+		final InetSocketAddress c = new InetSocketAddress("127.0.0.1", 7003);
+		final ShardRing ring = new ShardRing(Arrays.asList(a, b), 64);
+		final ShardRing joined = ring.with(c);
+		final Map<InetSocketAddress, Integer> counts = new HashMap<>();
+		int moved = 0;
+		for (int i = 0; i < 3000; i++) {
+			final GradeKey key = GradeKey.of(Grade.from("G" + i, i % 7));
+			final InetSocketAddress before = ring.node(key);
+			final InetSocketAddress after = joined.node(key);
+			counts.merge(after, 1, Integer::sum);
+			if (before != after) {
+				// Only moved to the new node ...
+				Assert.assertEquals(after, c);
+				moved++;
+			}
+		}
+		Assert.assertEquals(counts.size(), 3);
+		Assert.assertTrue(moved > 500 && moved < 1500, "Moved " + moved);
+		Assert.assertEquals(joined.without(c).node(GradeKey.of(Grade.from("G1", 1))),
+				ring.node(GradeKey.of(Grade.from("G1", 1))));
+		Assert.assertNull(new ShardRing(Arrays.asList(), 64).node(GradeKey.of()));
+	}
+}
@@ -1,19 +1,39 @@
 package com.cheeray.sifters;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -117,6 +137,662 @@ public class SifterTest {
 
 	}
 	
+	@Test
+	public void trySiftAll() throws IOException {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1)
+				.grading(Grade.from("A1", "B1", "C1", 1))
+				.collect(0, 100, TimeUnit.MILLISECONDS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		final SiftResult<Product> rs = s.trySiftAll(Arrays.asList(products));
+		Assert.assertEquals(rs.getSifted(), 100);
+		Assert.assertEquals(rs.getUngraded().size(), 900);
+		Assert.assertFalse(rs.isComplete());
+		s.shutdown();
+		Assert.assertEquals(sunk.size(), 100);
+	}
+
+	@Test
+	public void full() throws IOException, UngradedException, InterruptedException {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1)
+				.grading(1, TimeUnit.HOURS, 10, Long.MAX_VALUE, Grade.from("A1", "B1", "C1", 1))
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		for (Product p : products) {
+			if (p.getD() == 1 && "A1".equals(p.getA())) {
+				s.trySift(p);
+			}
+		}
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (sunk.size() < 100 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		// Flipped without waiting for the delay ...
+		Assert.assertEquals(sunk.size(), 100);
+		s.shutdown();
+	}
+
+	@Test
+	public void accumulate() throws IOException, UngradedException {
+		final ConcurrentHashMap<Integer, Integer> totalEs = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.reduce(1, 1, TimeUnit.HOURS, new Accumulator<Product, Summary>() {
+
+					@Override
+					public Summary create() {
+						return new Summary("", "", "", 0, 0, 0);
+					}
+
+					@Override
+					public void add(Summary r, Product d) {
+						r.addE(d.getE());
+					}
+
+					@Override
+					public void retract(Summary r, Product d) {
+						r.addE(-d.getE());
+					}
+				}, (Summary sum, Collection<Product> ps) -> {
+					totalEs.merge(ps.iterator().next().getD(), sum.getE().get(),
+							Integer::sum);
+				});
+		for (Product p : products) {
+			s.trySift(p);
+		}
+		// Newer versions replace ...
+		final Instant later = Instant.now().plusSeconds(1);
+		for (Product p : products) {
+			s.trySift(new Product(p.getKey(), p.getA(), p.getB(), p.getC(), p.getD(),
+					p.getE() * 2, p.getF(), later));
+		}
+		s.shutdown();
+		totalEs.forEach((k, v) -> {
+			Assert.assertEquals(v.intValue(), k * 40000);
+		});
+		Assert.assertEquals(totalEs.size(), 5);
+	}
+
+	/** Codec of products for spill and journal. */
+	private static final Codec<Product> CODEC = new Codec<Product>() {
+
+		@Override
+		public byte[] encode(Product d) throws IOException {
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try (DataOutputStream os = new DataOutputStream(bos)) {
+				os.writeUTF(d.getKey());
+				os.writeUTF(d.getA());
+				os.writeUTF(d.getB());
+				os.writeUTF(d.getC());
+				os.writeInt(d.getD());
+				os.writeInt(d.getE());
+				os.writeInt(d.getF());
+				os.writeLong(d.getVersion().toEpochMilli());
+			}
+			return bos.toByteArray();
+		}
+
+		@Override
+		public Product decode(byte[] bytes) throws IOException {
+			try (DataInputStream is = new DataInputStream(
+					new ByteArrayInputStream(bytes))) {
+				return new Product(is.readUTF(), is.readUTF(), is.readUTF(),
+						is.readUTF(), is.readInt(), is.readInt(), is.readInt(),
+						Instant.ofEpochMilli(is.readLong()));
+			}
+		}
+	};
+
+	@Test
+	public void spilledVersions() throws IOException {
+		final Path dir = Files.createTempDirectory("sifter");
+		final Epoch<String, Product> e = new Epoch<>(new GradingConfig(1, TimeUnit.HOURS),
+				null, new Spill<>(dir, CODEC));
+		final Product p7 = products[6];
+		final Product p8 = products[7];
+		e.add(p7);
+		e.add(p8);
+		e.add(products[8]);
+		Assert.assertTrue(e.spill());
+		Assert.assertEquals(e.size(), 0);
+		e.add(new Product(p7.getKey(), p7.getA(), p7.getB(), p7.getC(), p7.getD(),
+				p7.getE() + 1, p7.getF(), p7.getVersion().plusSeconds(1)));
+		e.add(new Product(p8.getKey(), p8.getA(), p8.getB(), p8.getC(), p8.getD(),
+				p8.getE() + 1, p8.getF(), p8.getVersion().minusSeconds(1)));
+		e.seal();
+		// The newest version of each key, either in heap or streamed from segments ...
+		final Map<String, Product> all = new HashMap<>();
+		for (Product p : e.all()) {
+			Assert.assertNull(all.put(p.getKey(), p));
+		}
+		Assert.assertEquals(all.size(), 3);
+		Assert.assertEquals(all.get("P7").getE(), p7.getE() + 1);
+		Assert.assertEquals(all.get("P8").getE(), p8.getE());
+		Assert.assertEquals(e.all().parallelStream().count(), 3);
+		e.release();
+		try (Stream<Path> segs = Files.list(dir)) {
+			Assert.assertEquals(segs.count(), 0);
+		}
+	}
+
+	@Test
+	public void spill() throws IOException, UngradedException {
+		final Path dir = Files.createTempDirectory("sifter");
+		System.setProperty("sifter.spill.min.entries", "10");
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.spill(dir, CODEC).collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		MemPhaser.getInstance().block();
+		try {
+			for (Product p : products) {
+				// Never blocked ...
+				s.trySift(p);
+			}
+			try (Stream<Path> segs = Files.list(dir)) {
+				Assert.assertTrue(segs.count() > 0);
+			}
+			// Versions of spilled keys are resolved with those arrived later ...
+			final Product p7 = products[6];
+			s.trySift(new Product(p7.getKey(), p7.getA(), p7.getB(), p7.getC(), p7.getD(),
+					p7.getE() + 1, p7.getF(), p7.getVersion().plusSeconds(1)));
+			final Product p8 = products[7];
+			s.trySift(new Product(p8.getKey(), p8.getA(), p8.getB(), p8.getC(), p8.getD(),
+					p8.getE() + 1, p8.getF(), p8.getVersion().minusSeconds(1)));
+		} finally {
+			MemPhaser.getInstance().release();
+			System.clearProperty("sifter.spill.min.entries");
+		}
+		s.shutdown();
+		Assert.assertEquals(sunk.size(), 1000);
+		Assert.assertEquals(sunk.get("P7").getE(), products[6].getE() + 1);
+		Assert.assertEquals(sunk.get("P8").getE(), products[7].getE());
+		try (Stream<Path> segs = Files.list(dir)) {
+			Assert.assertEquals(segs.count(), 0);
+		}
+	}
+
+	@Test
+	public void journal() throws Exception {
+		final Path dir = Files.createTempDirectory("journal");
+		final ConcurrentHashMap<String, Product> lost = new ConcurrentHashMap<>();
+		final Sifter<String, Product> crashed = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.journal(dir, CODEC).collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					lost.put(k, d);
+				});
+		for (Product p : products) {
+			crashed.trySift(p);
+		}
+		// The directory is locked by a live sifter ...
+		try {
+			Sifter.sift(10, 0.75f, 1).autoGrading().journal(dir, CODEC);
+			Assert.fail("Journal directory is shared.");
+		} catch (IOException e) {
+			// Expected ...
+		}
+		// Wait for a group commit, then crash without flush and restart ...
+		Thread.sleep(200);
+		crashed.halt();
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.journal(dir, CODEC).collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		s.shutdown();
+		Assert.assertEquals(sunk.size(), 1000);
+		Assert.assertEquals(sunk.get("P7").getE(), products[6].getE());
+		try (Stream<Path> segs = Files.list(dir)) {
+			Assert.assertEquals(segs.filter(f -> f.toString().endsWith(".wal")).count(), 0);
+		}
+		Assert.assertTrue(lost.isEmpty());
+	}
+
+	@Test
+	public void journalAppends() throws Exception {
+		final Path dir = Files.createTempDirectory("journal");
+		// Small segments to roll under concurrent appends ...
+		System.setProperty("sifter.journal.segment.bytes", "4096");
+		final Journal<Product> journal;
+		try {
+			journal = new Journal<>(dir, CODEC);
+		} finally {
+			System.clearProperty("sifter.journal.segment.bytes");
+		}
+		final Epoch<String, Product> e = new Epoch<>(new GradingConfig(1, TimeUnit.HOURS),
+				null, null);
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> fs = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int from = t;
+				fs.add(pool.submit(() -> {
+					for (int i = from; i < products.length; i += 4) {
+						journal.append(products[i], e);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f : fs) {
+				f.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		journal.close();
+		// Segments are kept while the epoch refers to them ...
+		final Journal<Product> reopened = new Journal<>(dir, CODEC);
+		Assert.assertTrue(reopened.getRecovered().size() > 1);
+		final ConcurrentHashMap<String, Product> replayed = new ConcurrentHashMap<>();
+		for (JournalSegment seg : reopened.getRecovered()) {
+			seg.read(bytes -> {
+				final Product p = CODEC.decode(bytes);
+				replayed.put(p.getKey(), p);
+			});
+		}
+		reopened.close();
+		Assert.assertEquals(replayed.size(), products.length);
+	}
+
+	@Test
+	public void shard() throws Exception {
+		final ConcurrentHashMap<String, Product> sunk1 = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<String, Product> sunk2 = new ConcurrentHashMap<>();
+		final Sifter<String, Product> n1 = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk1.put(k, d);
+				});
+		final Sifter<String, Product> n2 = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk2.put(k, d);
+				});
+		final InetSocketAddress loopback = new InetSocketAddress("127.0.0.1", 0);
+		try (SiftServer<String, Product> s1 = n1.serve(loopback, CODEC);
+				SiftServer<String, Product> s2 = n2.serve(loopback, CODEC)) {
+			final SiftRouter<String, Product> router = Sifter.route(CODEC,
+					s1.getAddress(), s2.getAddress());
+			for (Product p : products) {
+				router.trySift(p);
+			}
+			router.shutdown();
+			Assert.assertEquals(router.getRouted(), 1000);
+			Assert.assertEquals(router.getUngraded(), 0);
+			Assert.assertEquals(router.getFailed(), 0);
+		}
+		n1.shutdown();
+		n2.shutdown();
+		// Each target is sifted by a single node ...
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>(sunk1);
+		sunk.putAll(sunk2);
+		Assert.assertEquals(sunk.size(), sunk1.size() + sunk2.size());
+		Assert.assertEquals(sunk.size(), 1000);
+		Assert.assertEquals(sunk.get("P7").getE(), products[6].getE());
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).name("metrics")
+				.grading(Grade.from("A1", "B1", "C1", 1))
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+				});
+		s.trySiftAll(Arrays.asList(products));
+		final Product p = products[0];
+		s.trySift(new Product(p.getKey(), p.getA(), p.getB(), p.getC(), p.getD(), 0, 0,
+				p.getVersion().plusSeconds(1)));
+		final SifterMetrics m = s.getMetrics();
+		Assert.assertEquals(m.getSifted(), 101);
+		Assert.assertEquals(m.getReplaced(), 1);
+		Assert.assertEquals(m.getUngraded(), 900);
+		Assert.assertEquals(m.getBuckets(), 1);
+		final ObjectName name = new ObjectName("com.cheeray.sifters:type=Sifter,name=\"metrics\"");
+		Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+				"Ungraded"), 900L);
+		s.shutdown();
+		Assert.assertTrue(m.getFlips() > 0);
+		// Only sunk, nothing reduced ...
+		Assert.assertEquals(m.getSinkLatency().getCount(), m.getFlips());
+		Assert.assertEquals(m.getReduceLatency().getCount(), 0);
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test
+	public void runtime() throws IOException {
+		final SifterRuntime rt = new SifterRuntime(1, 2);
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> a = Sifter.sift(10, 0.75f, 1).runtime(rt)
+				.grading(Grade.from("A1", "B1", "C1", 1))
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		final Sifter<String, Product> b = Sifter.sift(10, 0.75f, 1).runtime(rt)
+				.grading(Grade.from("A0", "B0", "C0", 0))
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		a.trySiftAll(Arrays.asList(products));
+		b.trySiftAll(Arrays.asList(products));
+		// Flushes all sifters of the runtime ...
+		rt.shutdown();
+		Assert.assertEquals(sunk.size(), 200);
+		Assert.assertTrue(a.isIdle());
+		Assert.assertTrue(b.isIdle());
+	}
+
+	@Test
+	public void fanout() throws IOException, UngradedException {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<Integer, Integer> totalEs = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<Integer, Integer> totalFs = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.collect(1, 1, TimeUnit.HOURS, new Fanout<String, Product>()
+						.sink((k, d) -> {
+							sunk.put(k, d);
+						}).reduce(Product::getE, Integer::sum,
+								(Integer e, Collection<Product> ps) -> {
+									totalEs.merge(ps.iterator().next().getD(), e,
+											Integer::sum);
+								})
+						.reduce(Product::getF, Integer::sum,
+								(Integer f, Collection<Product> ps) -> {
+									totalFs.merge(ps.iterator().next().getD(), f,
+											Integer::sum);
+								}));
+		for (Product p : products) {
+			s.trySift(p);
+		}
+		s.shutdown();
+		Assert.assertEquals(sunk.size(), 1000);
+		Assert.assertEquals(totalEs.size(), 5);
+		totalEs.forEach((k, v) -> {
+			Assert.assertEquals(v.intValue(), k * 20000);
+		});
+		totalFs.forEach((k, v) -> {
+			Assert.assertEquals(v.intValue(), k * 200000);
+		});
+	}
+
+	@Test
+	public void async() throws IOException, UngradedException {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final CompletableFuture<Void> io = new CompletableFuture<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).inFlight(1, Long.MAX_VALUE)
+				.grading(1, TimeUnit.HOURS, 10, Long.MAX_VALUE, Grade.from("A1", "B1", "C1", 1))
+				.collect(1, 1, TimeUnit.HOURS, new Fanout<String, Product>().sinkAsync(ps -> {
+					return io.thenRun(() -> {
+						ps.forEach(p -> sunk.put(p.getKey(), p));
+					});
+				}));
+		final List<Product> ps = Arrays.stream(products)
+				.filter(p -> p.getD() == 1 && "A1".equals(p.getA()))
+				.collect(Collectors.toList());
+		for (Product p : ps.subList(0, 10)) {
+			Assert.assertTrue(s.trySift(p, 1, TimeUnit.SECONDS));
+		}
+		// The first flip is pending, no more flips in flight are allowed ...
+		Assert.assertTrue(s.isSinking());
+		Assert.assertFalse(s.trySift(ps.get(10), 50, TimeUnit.MILLISECONDS));
+		io.complete(null);
+		Assert.assertTrue(s.trySift(ps.get(10), 1, TimeUnit.SECONDS));
+		Assert.assertEquals(sunk.size(), 10);
+		s.shutdown();
+		Assert.assertEquals(sunk.size(), 11);
+	}
+
+	@Test
+	public void publish() throws Exception {
+		final List<Collection<Product>> received = new CopyOnWriteArrayList<>();
+		final CompletableFuture<Void> completed = new CompletableFuture<>();
+		final AtomicReference<FlipPublisher.Subscription> subscription = new AtomicReference<>();
+		final FlipPublisher<Collection<Product>> publisher = new FlipPublisher<>();
+		publisher.subscribe(new FlipPublisher.Subscriber<Collection<Product>>() {
+
+			@Override
+			public void onSubscribe(FlipPublisher.Subscription s) {
+				subscription.set(s);
+			}
+
+			@Override
+			public void onNext(Collection<Product> ps) {
+				received.add(new ArrayList<>(ps));
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				completed.completeExceptionally(t);
+			}
+
+			@Override
+			public void onComplete() {
+				completed.complete(null);
+			}
+		});
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).inFlight(1, Long.MAX_VALUE)
+				.grading(1, TimeUnit.HOURS, 10, Long.MAX_VALUE, Grade.from("A1", "B1", "C1", 1))
+				.collect(1, 1, TimeUnit.HOURS, new Fanout<String, Product>().publish(publisher));
+		final List<Product> ps = Arrays.stream(products)
+				.filter(p -> p.getD() == 1 && "A1".equals(p.getA()))
+				.collect(Collectors.toList());
+		for (Product p : ps.subList(0, 10)) {
+			Assert.assertTrue(s.trySift(p, 1, TimeUnit.SECONDS));
+		}
+		// No demand, the flip is held in flight and ingestion waits ...
+		Assert.assertTrue(received.isEmpty());
+		Assert.assertFalse(s.trySift(ps.get(10), 50, TimeUnit.MILLISECONDS));
+		subscription.get().request(1);
+		Assert.assertEquals(received.size(), 1);
+		Assert.assertEquals(received.get(0).size(), 10);
+		Assert.assertTrue(s.trySift(ps.get(10), 1, TimeUnit.SECONDS));
+		subscription.get().request(Long.MAX_VALUE);
+		s.shutdown();
+		completed.get(1, TimeUnit.SECONDS);
+		Assert.assertEquals(received.size(), 2);
+	}
+
+	@Test
+	public void publishStalled() throws Exception {
+		final CompletableFuture<Void> completed = new CompletableFuture<>();
+		final FlipPublisher<Collection<Product>> publisher = new FlipPublisher<>();
+		publisher.subscribe(new FlipPublisher.Subscriber<Collection<Product>>() {
+
+			@Override
+			public void onSubscribe(FlipPublisher.Subscription s) {
+			}
+
+			@Override
+			public void onNext(Collection<Product> ps) {
+				completed.complete(null);
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				completed.completeExceptionally(t);
+			}
+
+			@Override
+			public void onComplete() {
+				completed.complete(null);
+			}
+		});
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.collect(1, 1, TimeUnit.HOURS, new Fanout<String, Product>().publish(publisher));
+		s.trySiftAll(Arrays.asList(products));
+		// The subscriber never requests, shutdown drops flushed flips once timed out ...
+		System.setProperty("sifter.shutdown.timeout.mills", "100");
+		try {
+			s.shutdown();
+		} finally {
+			System.clearProperty("sifter.shutdown.timeout.mills");
+		}
+		try {
+			completed.get(1, TimeUnit.SECONDS);
+			Assert.fail("Subscriber is not failed.");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	@Test
+	public void summarize() throws Exception {
+		final Sketch<Product, HyperLogLog> distinct = Sketches.distinct(Product::getKey);
+		final HyperLogLog total = distinct.create();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.summarize(1, 1, TimeUnit.HOURS, distinct, (GradeKey k, HyperLogLog h) -> {
+					synchronized (total) {
+						distinct.merge(total, h);
+					}
+				});
+		for (Product p : products) {
+			s.trySift(p);
+			s.trySift(p);
+		}
+		// No targets are kept ...
+		Assert.assertEquals(s.getMetrics().getSifted(), 2000);
+		s.shutdown();
+		Assert.assertEquals(total.estimate(), 1000, 50);
+	}
+
+	@Test
+	public void rollup() throws Exception {
+		final ConcurrentHashMap<GradeKey, Integer> totalEs = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading()
+				.rollup(1, 1, TimeUnit.HOURS, Product::getE, Integer::sum,
+						(GradeKey k, Integer e) -> {
+							Assert.assertNull(totalEs.put(k, e));
+						});
+		for (Product p : products) {
+			s.trySift(p);
+		}
+		s.shutdown();
+		// 10 finest buckets, then 2 of A+B+C, 2 of A+B and 2 of A ...
+		Assert.assertEquals(totalEs.size(), 16);
+		for (String a : Arrays.asList("A0", "A1")) {
+			final int expected = Arrays.stream(products).filter(p -> a.equals(p.getA()))
+					.mapToInt(Product::getE).sum();
+			Assert.assertEquals(totalEs.get(GradeKey.of(Grade.from(a))).intValue(),
+					expected);
+		}
+	}
+
+	@Test
+	public void peek() throws Exception {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 1).autoGrading().indexed()
+				.collect(1, 1, TimeUnit.HOURS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		for (Product p : products) {
+			s.trySift(p);
+		}
+		Assert.assertSame(s.peek("P7"), products[6]);
+		Assert.assertNull(s.peek("P0"));
+		final Product newer = new Product("P7", "A0", "B0", "C0", 2, 1, 1,
+				products[6].getVersion().plusSeconds(1));
+		s.trySift(newer);
+		Assert.assertSame(s.peek("P7"), newer);
+		Assert.assertEquals(s.query(Grade.from("A1")).count(), 500);
+		Assert.assertEquals(s.query(Grade.from("A1", "B1", "C1", 1)).count(), 100);
+		Assert.assertEquals(s.query().count(), 1001);
+		s.shutdown();
+		Assert.assertNull(s.peek("P7"));
+		Assert.assertEquals(s.query().count(), 0);
+		Assert.assertEquals(sunk.size(), 1000);
+	}
+
+	@Test
+	public void stripes() throws Exception {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 4).stripes(4)
+				.autoGrading(20, TimeUnit.MILLISECONDS)
+				.collect(0, 10, TimeUnit.MILLISECONDS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		Arrays.stream(products).parallel().forEach(p -> {
+			try {
+				s.trySift(p);
+			} catch (IOException | UngradedException e) {
+				throw new AssertionError(e);
+			}
+		});
+		Assert.assertEquals(s.getMetrics().getSifted(), 1000);
+		// Flipped by the ticks of stripes ...
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (sunk.size() < 1000 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(sunk.size(), 1000);
+		s.shutdown();
+	}
+
+	@Test
+	public void ring() throws Exception {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		// Small rings to make producers wait ...
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 4).stripes(2).ring(16)
+				.autoGrading(20, TimeUnit.MILLISECONDS)
+				.collect(0, 10, TimeUnit.MILLISECONDS, (String k, Product d) -> {
+					sunk.put(k, d);
+				});
+		Arrays.stream(products, 0, 500).parallel().forEach(p -> {
+			try {
+				s.trySift(p);
+			} catch (IOException | UngradedException e) {
+				throw new AssertionError(e);
+			}
+		});
+		final SiftResult<Product> r = s
+				.trySiftAll(Arrays.asList(products).subList(500, 1000));
+		Assert.assertEquals(r.getSifted(), 500);
+		// Claimed targets are applied before the flush ...
+		s.shutdown();
+		Assert.assertEquals(s.getMetrics().getSifted(), 1000);
+		Assert.assertEquals(sunk.size(), 1000);
+	}
+
+	@Test
+	public void subBuckets() throws Exception {
+		final ConcurrentHashMap<String, Product> sunk = new ConcurrentHashMap<>();
+		final AtomicInteger count = new AtomicInteger();
+		final Sifter<String, Product> s = Sifter.sift(10, 0.75f, 4).subBuckets(4)
+				.autoGrading(1, TimeUnit.MINUTES)
+				.collect(0, 10, TimeUnit.MILLISECONDS, (String k, Product d) -> {
+					sunk.put(k, d);
+					count.incrementAndGet();
+				});
+		// Versions of a key are sifted by different threads ...
+		final Instant later = Instant.now().plusSeconds(1);
+		final Thread older = new Thread(() -> {
+			for (Product p : products) {
+				try {
+					s.trySift(p);
+				} catch (IOException | UngradedException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		final Thread newer = new Thread(() -> {
+			for (Product p : products) {
+				try {
+					s.trySift(new Product(p.getKey(), p.getA(), p.getB(), p.getC(), p.getD(),
+							p.getE() * 2, p.getF(), later));
+				} catch (IOException | UngradedException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		older.start();
+		newer.start();
+		older.join();
+		newer.join();
+		// Sub-buckets are merged by key and version ...
+		s.shutdown();
+		Assert.assertEquals(count.get(), 1000);
+		for (Product p : products) {
+			Assert.assertEquals(sunk.get(p.getKey()).getVersion(), later);
+		}
+	}
+
 	private Sifter<String, Product> siftProducts(
 			final ConcurrentHashMap<Integer, Integer> totalEs,
 			final ConcurrentHashMap<Integer, Integer> totalFs,
@@ -0,0 +1,54 @@
+package com.cheeray.sifters;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SketchesTest {
+
+	@Test
+	public void distinct() {
+		final Sketch<Integer, HyperLogLog> s = Sketches.distinct(i -> i);
+		final HyperLogLog a = s.create();
+		final HyperLogLog b = s.create();
+		IntStream.range(0, 100000).parallel().forEach(i -> s.add(a, i));
+		IntStream.range(50000, 150000).parallel().forEach(i -> s.add(b, i));
+		Assert.assertEquals(a.estimate(), 100000, 5000);
+		Assert.assertEquals(s.merge(a, b).estimate(), 150000, 7500);
+	}
+
+	@Test
+	public void topK() {
+		final Sketch<String, TopK<String>> s = Sketches.topK(v -> v, 3);
+		final TopK<String> a = s.create();
+		final TopK<String> b = s.create();
+		for (int i = 0; i < 10000; i++) {
+			s.add(a, "V" + i);
+			s.add(i % 2 == 0 ? a : b, "H" + i % 3);
+		}
+		final List<Map.Entry<String, Long>> top = s.merge(a, b).getTop();
+		Assert.assertEquals(top.size(), 3);
+		for (Map.Entry<String, Long> e : top) {
+			Assert.assertTrue(e.getKey().startsWith("H"), e.getKey());
+			// Never under estimated ...
+			Assert.assertTrue(e.getValue() >= 3333);
+		}
+	}
+
+	@Test
+	public void quantiles() {
+		final Sketch<Long, Histogram> s = Sketches.quantiles(v -> v);
+		final Histogram a = s.create();
+		final Histogram b = s.create();
+		for (long v = 1; v <= 1000; v++) {
+			s.add(v % 2 == 0 ? a : b, v);
+		}
+		final Histogram h = s.merge(a, b);
+		Assert.assertEquals(h.getCount(), 1000);
+		Assert.assertEquals(h.getMax(), 1000);
+		Assert.assertTrue(Math.abs(h.getPercentile(50) - 500) <= 500 / 8);
+	}
+}